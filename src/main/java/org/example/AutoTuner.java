@@ -0,0 +1,153 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * AutoTuner
+ * Finds the fastest llama.cpp settings for this machine.
+ * - Sweeps threads x batch size x (mmap / no-mmap / mlock), then --ctx-size on the winner
+ * - Runs the same short prompt set for each candidate
+ * - Scores by wall-clock time per run: Mochi spawns llama-cli for every reply, so model loading
+ *   (what mmap / no-mmap / mlock change) is part of what the user waits for
+ * - A candidate whose run fails or generates nothing is rejected, not scored
+ * - Saves the winner as this host's BackendProfile
+ * Run with: Main --tune
+ */
+public class AutoTuner {
+
+    private static final String[] PROMPTS = {
+            "You are Mochi, a friendly assistant.\nUser: Give me three tips for learning Java.\nMochi:",
+            "You are Mochi, a friendly assistant.\nUser: Summarize what a hash map is in two sentences.\nMochi:",
+            "You are Mochi, a friendly assistant.\nUser: Write a short haiku about autumn.\nMochi:"
+    };
+
+    private static final int N_PREDICT = 48;
+    private static final int CTX_SIZE = 900;                 // what the prompts are budgeted for
+    private static final int[] CTX_SIZES = {CTX_SIZE, 2048, 4096};
+    private static final double CTX_TIE = 0.05;              // a bigger context within 5% is free headroom
+
+    private final Supplier<LlamaClient> factory;
+
+    public AutoTuner(Supplier<LlamaClient> factory) {
+        this.factory = factory;
+    }
+
+    public BackendProfile tune() throws Exception {
+        List<BackendProfile> grid = buildGrid();
+        System.out.println("[TUNE] Testing " + grid.size() + " settings (+ " + (CTX_SIZES.length - 1) +
+                " context sizes) with " + PROMPTS.length + " prompts each...");
+
+        // first run only pulls the model into the page cache; don't let it skew the first candidate
+        try {
+            factory.get().complete(PROMPTS[0], 1);
+        } catch (IOException ex) {
+            System.out.println("[TUNE] Warm-up run failed: " + ex.getMessage());
+        }
+
+        BackendProfile best = null;
+        double bestSeconds = Double.MAX_VALUE;
+        for (BackendProfile candidate : grid) {
+            double seconds = score(candidate);
+            if (seconds < bestSeconds) {
+                bestSeconds = seconds;
+                best = candidate;
+            }
+        }
+
+        // context size mostly costs KV-cache allocation at load; only keep a smaller one if it's clearly faster
+        if (best != null) {
+            BackendProfile winner = best;
+            for (int ctx : CTX_SIZES) {
+                if (ctx == winner.ctxSize) continue;
+                BackendProfile candidate = new BackendProfile(winner.threads, winner.batchSize, ctx, winner.mmap, winner.mlock);
+                double seconds = score(candidate);
+                boolean faster = seconds < bestSeconds * (1 - CTX_TIE);
+                boolean tieButRoomier = seconds <= bestSeconds * (1 + CTX_TIE) && ctx > best.ctxSize;
+                if (faster || tieButRoomier) {
+                    bestSeconds = Math.min(bestSeconds, seconds);
+                    best = candidate;
+                }
+            }
+        }
+
+        if (best != null) {
+            best.saveForHost();
+            System.out.println("[TUNE] Best: " + best + " (saved for this host).");
+        } else {
+            System.out.println("[TUNE] Every candidate failed; nothing saved.");
+        }
+        return best;
+    }
+
+    /** Total wall-clock seconds for the prompt set, or Double.MAX_VALUE if the candidate failed. */
+    private double score(BackendProfile candidate) throws InterruptedException {
+        LlamaClient client = factory.get();
+        client.applyProfile(candidate);
+
+        double seconds = 0;
+        double evalSeconds = 0;
+        double promptTps = 0;
+        double genTps = 0;
+        for (String prompt : PROMPTS) {
+            try {
+                client.complete(prompt, N_PREDICT);
+            } catch (IOException ex) {
+                System.out.printf("[TUNE] %-55s rejected: %s%n", candidate, ex.getMessage());
+                return Double.MAX_VALUE;
+            }
+            CompletionStats stats = client.getLastStats();
+            if (stats.getGeneratedTokens() == 0) {
+                System.out.printf("[TUNE] %-55s rejected: generated no tokens%n", candidate);
+                return Double.MAX_VALUE;
+            }
+            seconds += stats.getWallMillis() / 1000.0;
+            evalSeconds += evalSeconds(stats);
+            promptTps += stats.getPromptTokensPerSec();
+            genTps += stats.getGenerationTokensPerSec();
+        }
+
+        System.out.printf("[TUNE] %-55s %.2f s  (eval %.2f s, prompt %.1f tok/s, gen %.1f tok/s)%n",
+                candidate, seconds, evalSeconds, promptTps / PROMPTS.length, genTps / PROMPTS.length);
+        return seconds;
+    }
+
+    /** Time llama reports for prompt evaluation + generation alone (shown for reference, not scored). */
+    private static double evalSeconds(CompletionStats stats) {
+        double s = 0;
+        if (stats.getPromptTokensPerSec() > 0) {
+            s += stats.getPromptTokens() / stats.getPromptTokensPerSec();
+        }
+        if (stats.getGenerationTokensPerSec() > 0) {
+            s += stats.getGeneratedTokens() / stats.getGenerationTokensPerSec();
+        }
+        return s;
+    }
+
+    private static List<BackendProfile> buildGrid() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        threadCounts.add(Math.max(1, cores / 4));
+        threadCounts.add(Math.max(1, cores / 2));
+        threadCounts.add(Math.max(1, cores - 1));
+        threadCounts.add(cores);
+
+        int[] batchSizes = {128, 512, 2048};
+
+        List<BackendProfile> grid = new ArrayList<>();
+        for (int t : threadCounts) {
+            for (int b : batchSizes) {
+                grid.add(new BackendProfile(t, b, CTX_SIZE, true, false));
+            }
+        }
+
+        // memory mapping only matters once; try the variants with a middle-of-the-road thread count
+        int t = Math.max(1, cores / 2);
+        grid.add(new BackendProfile(t, 512, CTX_SIZE, false, false));
+        grid.add(new BackendProfile(t, 512, CTX_SIZE, true, true));
+        return grid;
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * BackendLog
+ * Size-rotated log file for llama.cpp's own (very verbose) stderr output.
+ * - llama-backend.log is the current file
+ * - llama-backend.log.1 .. .N are older ones, oldest gets dropped
+ * Keeps the console readable and stops backend chatter from piling up in memory.
+ */
+public class BackendLog {
+
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final BackendLog DEFAULT =
+            new BackendLog(new File("logs", "llama-backend.log"), 5L * 1024 * 1024, 3);
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxBackups;
+
+    private Writer writer;
+    private long written;
+
+    public BackendLog(File file, long maxBytes, int maxBackups) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = Math.max(0, maxBackups);
+    }
+
+    public static BackendLog getDefault() {
+        return DEFAULT;
+    }
+
+    public synchronized void append(String line) {
+        try {
+            if (writer == null) {
+                open();
+            }
+            String entry = LocalDateTime.now().format(TS) + " " + line + "\n";
+            writer.write(entry);
+            written += entry.getBytes(StandardCharsets.UTF_8).length;
+
+            if (written >= maxBytes) {
+                rotate();
+            }
+        } catch (IOException ex) {
+            // never let logging break a completion
+            System.out.println("[LOG] Failed to write backend log: " + ex.getMessage());
+        }
+    }
+
+    public synchronized void flush() {
+        if (writer == null) return;
+        try {
+            writer.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void open() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        written = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        writer = null;
+
+        if (maxBackups == 0) {
+            file.delete();
+        } else {
+            new File(file.getPath() + "." + maxBackups).delete();
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                File src = new File(file.getPath() + "." + i);
+                if (src.exists()) {
+                    src.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            file.renameTo(new File(file.getPath() + ".1"));
+        }
+
+        open();
+    }
+}
@@ -0,0 +1,102 @@
+package org.example;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * BackendProfile
+ * llama.cpp performance settings for one machine (-t, -b, --ctx-size, mmap/mlock).
+ * - Found by AutoTuner, stored per host in ~/.mochi/backend-profile.properties
+ * - Applied to every LlamaClient at startup
+ */
+public class BackendProfile {
+
+    private static final File PROFILE_FILE =
+            new File(System.getProperty("user.home"), ".mochi" + File.separator + "backend-profile.properties");
+
+    public final int threads;     // -t, 0 = llama default
+    public final int batchSize;   // -b, 0 = llama default
+    public final int ctxSize;     // --ctx-size
+    public final boolean mmap;    // false → --no-mmap
+    public final boolean mlock;   // true → --mlock
+
+    public BackendProfile(int threads, int batchSize, int ctxSize, boolean mmap, boolean mlock) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.ctxSize = ctxSize;
+        this.mmap = mmap;
+        this.mlock = mlock;
+    }
+
+    // -----------------------------
+    // Persistence
+    // -----------------------------
+
+    /** Profile saved for this host, or null if the tuner never ran here. */
+    public static BackendProfile loadForHost() {
+        if (!PROFILE_FILE.isFile()) return null;
+
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(PROFILE_FILE), StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException ex) {
+            System.out.println("[TUNE] Failed to read " + PROFILE_FILE + ": " + ex.getMessage());
+            return null;
+        }
+
+        String prefix = hostKey() + ".";
+        if (props.getProperty(prefix + "threads") == null) return null;
+
+        try {
+            return new BackendProfile(
+                    Integer.parseInt(props.getProperty(prefix + "threads")),
+                    Integer.parseInt(props.getProperty(prefix + "batchSize")),
+                    Integer.parseInt(props.getProperty(prefix + "ctxSize")),
+                    Boolean.parseBoolean(props.getProperty(prefix + "mmap")),
+                    Boolean.parseBoolean(props.getProperty(prefix + "mlock")));
+        } catch (NumberFormatException ex) {
+            System.out.println("[TUNE] Ignoring broken profile for " + hostKey());
+            return null;
+        }
+    }
+
+    public void saveForHost() throws IOException {
+        Properties props = new Properties();
+        if (PROFILE_FILE.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(PROFILE_FILE), StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        }
+
+        String prefix = hostKey() + ".";
+        props.setProperty(prefix + "threads", String.valueOf(threads));
+        props.setProperty(prefix + "batchSize", String.valueOf(batchSize));
+        props.setProperty(prefix + "ctxSize", String.valueOf(ctxSize));
+        props.setProperty(prefix + "mmap", String.valueOf(mmap));
+        props.setProperty(prefix + "mlock", String.valueOf(mlock));
+
+        PROFILE_FILE.getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(PROFILE_FILE), StandardCharsets.UTF_8)) {
+            props.store(writer, "LocalLLMChat backend profiles (written by --tune)");
+        }
+    }
+
+    // one file can hold profiles for several machines (e.g. synced home dir)
+    private static String hostKey() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            host = "localhost";
+        }
+        return host.replaceAll("[^A-Za-z0-9_-]", "_") + "_" + Runtime.getRuntime().availableProcessors() + "cpu";
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + threads + ", batch=" + batchSize + ", ctx=" + ctxSize +
+                ", mmap=" + mmap + ", mlock=" + mlock;
+    }
+}
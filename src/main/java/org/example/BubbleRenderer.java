@@ -0,0 +1,96 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BubbleRenderer
+ * Paints the rounded chat bubble backgrounds for every bubble in the window.
+ * - The antialiased corners are rendered once per (color, display scale) into a small tile
+ * - Each paint just blits the 4 corners and fills the straight parts with plain rects
+ * - No Graphics.create(), no antialiasing work per bubble per repaint
+ * - Integral display scales only (100%, 200%, ...): there the result is pixel-identical to the old
+ *   antialiased fillRoundRect; fractional scales and tiny bubbles are painted the old way
+ * Bubbles ask for their color at paint time, so a theme switch only needs a repaint.
+ * EDT only.
+ */
+public class BubbleRenderer {
+
+    private static final int ARC = 18;                 // same as the old fillRoundRect(..., 18, 18)
+    private static final int CORNER = ARC / 2;
+
+    // key: rgba << 16 | scale in 1/100ths
+    private final Map<Long, BufferedImage> tiles = new HashMap<>();
+
+    public void paintBackground(Graphics g, int width, int height, Color color) {
+        Color old = g.getColor();
+        g.setColor(color);
+
+        int r = CORNER;
+        if (width < 2 * r || height < 2 * r || !(g instanceof Graphics2D g2) || !isIntegralScale(g2)) {
+            // tiny bubble, or a fractional display scale (125%, 150%): corners and edges land between
+            // device pixels there, so the tiles can't match fillRoundRect exactly; paint it directly
+            fillDirect(g, width, height);
+            g.setColor(old);
+            return;
+        }
+
+        double scale = g2.getTransform().getScaleX();
+        BufferedImage tile = tileFor(color, scale);
+        int half = tile.getWidth() / 2;
+
+        // corners (source coordinates are device pixels, so HiDPI stays sharp)
+        g2.drawImage(tile, 0, 0, r, r, 0, 0, half, half, null);
+        g2.drawImage(tile, width - r, 0, width, r, half, 0, 2 * half, half, null);
+        g2.drawImage(tile, 0, height - r, r, height, 0, half, half, 2 * half, null);
+        g2.drawImage(tile, width - r, height - r, width, height, half, half, 2 * half, 2 * half, null);
+
+        // straight parts
+        g2.fillRect(r, 0, width - 2 * r, height);
+        g2.fillRect(0, r, r, height - 2 * r);
+        g2.fillRect(width - r, r, r, height - 2 * r);
+
+        g.setColor(old);
+    }
+
+    private static boolean isIntegralScale(Graphics2D g2) {
+        double sx = g2.getTransform().getScaleX();
+        return sx == Math.rint(sx) && sx == g2.getTransform().getScaleY();
+    }
+
+    // the old per-bubble paint: antialiased fillRoundRect
+    private static void fillDirect(Graphics g, int width, int height) {
+        if (!(g instanceof Graphics2D g2)) {
+            g.fillRoundRect(0, 0, width, height, ARC, ARC);
+            return;
+        }
+        Object aa = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.fillRoundRect(0, 0, width, height, ARC, ARC);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, aa);
+    }
+
+    /** Number of cached corner tiles (for diagnostics). */
+    public int cachedTiles() {
+        return tiles.size();
+    }
+
+    private BufferedImage tileFor(Color color, double scale) {
+        long scaleKey = Math.round(scale * 100);
+        long key = ((long) color.getRGB() << 16) ^ scaleKey;
+
+        return tiles.computeIfAbsent(key, k -> {
+            int half = (int) Math.ceil(CORNER * scale);
+            int size = 2 * half;
+            BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D tg = img.createGraphics();
+            tg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            tg.setColor(color);
+            tg.fillOval(0, 0, size, size);
+            tg.dispose();
+            return img;
+        });
+    }
+}
@@ -0,0 +1,397 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * ChatEngine
+ * The chat pipeline without any UI, shared by ChatWindow and HeadlessServer.
+ * Handles:
+ * - Canned + cached replies (ResponseCache)
+ * - Running the model and tidying / sanitizing its reply
+ * - Long-term memory summarization (inline, or at idle time via MaintenanceScheduler)
+ * - Latency target: adaptive reply length / context and a fallback model (LatencyController)
+ * - Optional vision: /img pictures described by a multimodal model (ImageDescriber)
+ */
+public class ChatEngine {
+
+    public static final String BOT_NAME = "Mochi";
+    public static final int MAX_REPLY_CHARS = 600;
+
+    // -Dmochi.stats=true: one "[STATS]" console line per model reply (every run is in the backend log anyway)
+    private static final boolean PRINT_STATS = Boolean.getBoolean("mochi.stats");
+
+    private final LlamaPool pool;
+    private final ResponseCache responseCache;
+    private final PromptPrefiller prefiller;
+    private volatile boolean prefillEnabled = true;
+    private volatile ChatTemplate template = ChatTemplate.PLAIN;
+    private volatile LatencyController latency = new LatencyController(0, false);
+    private volatile LlamaPool fallbackPool;   // smaller model, only used when latency says so
+    private volatile ImageDescriber imageDescriber;   // null = images are only shown, not seen
+    private volatile MaintenanceScheduler maintenance;   // null = summarize inline after each reply
+    private final AtomicInteger busy = new AtomicInteger();   // replies + image descriptions running
+
+    public ChatEngine(LlamaClient llamaClient, ResponseCache responseCache) {
+        this(LlamaPool.single(llamaClient), responseCache);
+    }
+
+    public ChatEngine(LlamaPool pool, ResponseCache responseCache) {
+        this.pool = pool;
+        this.responseCache = responseCache;
+        this.prefiller = new PromptPrefiller(pool);
+    }
+
+    /** Prompt layout for conversations created by newConversation(). */
+    public void setTemplate(ChatTemplate template) {
+        this.template = template == null ? ChatTemplate.PLAIN : template;
+    }
+
+    public Conversation newConversation() {
+        Conversation convo = new Conversation();
+        convo.setTemplate(template);
+        convo.setJournal(ConversationArchive.Journal.createTemp());
+        return convo;
+    }
+
+    public void setPrefillEnabled(boolean enabled) {
+        this.prefillEnabled = enabled;
+        if (!enabled) {
+            prefiller.cancel();
+        }
+    }
+
+    /**
+     * Keep replies under targetMs by adapting length / context; fallback (may be null) is a
+     * smaller model to switch to when the host can't keep up. targetMs <= 0 turns this off.
+     */
+    public void setLatencyTarget(long targetMs, LlamaPool fallback) {
+        this.fallbackPool = fallback;
+        this.latency = new LatencyController(targetMs, fallback != null);
+        if (targetMs > 0) {
+            System.out.println("[SLO] Target latency " + targetMs + " ms" +
+                    (fallback != null ? ", fallback model " + fallback.getPrimary().getModelPath() : ""));
+        }
+    }
+
+    public void setImageDescriber(ImageDescriber imageDescriber) {
+        this.imageDescriber = imageDescriber;
+    }
+
+    public boolean hasVision() {
+        return imageDescriber != null;
+    }
+
+    /**
+     * What the vision model sees in the image (cached per image content), or null without vision.
+     * Slow on a cache miss: run it off the EDT.
+     */
+    public String describeImage(File image) throws IOException, InterruptedException {
+        ImageDescriber describer = imageDescriber;
+        if (describer == null) return null;
+        busy.incrementAndGet();
+        try {
+            return describer.describe(image);
+        } finally {
+            busy.decrementAndGet();
+        }
+    }
+
+    /**
+     * True while any model work is going on: a reply (main or fallback model), an image
+     * description, a prefill or anything else on the pool. Background maintenance waits for false.
+     */
+    public boolean isBusy() {
+        LlamaPool fallback = fallbackPool;
+        return busy.get() > 0
+                || pool.getInFlight() > 0
+                || (fallback != null && fallback.getInFlight() > 0)
+                || prefiller.isRunning();
+    }
+
+    public LatencyController getLatency() {
+        return latency;
+    }
+
+    public LlamaPool getPool() {
+        return pool;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    // -----------------------------
+    // Replies
+    // -----------------------------
+
+    /** Canned reply for intents like "what's your name?", or null. Never starts llama-cli. */
+    public String cannedReply(String userText) {
+        return responseCache.lookupIntent(userText);
+    }
+
+    /** Cached reply for this exact/normalized prompt, or null. */
+    public String cachedReply(String prompt) {
+        return responseCache.get(prompt);
+    }
+
+    /**
+     * One full chat turn: records the user text, answers (canned → cached → model)
+     * and records the reply. onText gets the streamed (sanitized) text of model replies; may be null.
+     */
+    public String respond(Conversation conversation, String userText, Consumer<String> onText) throws Exception {
+        userActive();
+        conversation.addUser(userText);
+
+        String reply = cannedReply(userText);
+        if (reply == null) {
+            String prompt = buildPrompt(conversation);
+            reply = cachedReply(prompt);
+            if (reply == null) {
+                reply = generateReply(prompt, onText);
+            }
+        }
+
+        conversation.addAssistant(reply);
+        return reply;
+    }
+
+    /** The conversation's prompt, within the context budget the latency target allows. */
+    public String buildPrompt(Conversation conversation) {
+        return conversation.buildTrimmedPrompt(latency.currentPlan().historyTokens());
+    }
+
+    /**
+     * Run the model on the prompt and return the cleaned reply ("" if the model said nothing).
+     * onText receives the text while it streams, already run through a StreamingSanitizer
+     * (identity fix, no end markers, at most MAX_REPLY_CHARS); may be null.
+     */
+    public String generateReply(String prompt, Consumer<String> onText) throws Exception {
+        return generateReply(prompt, onText, null);
+    }
+
+    /** Like generateReply(prompt, onText); onStats (may be null) gets this reply's own llama stats. */
+    public String generateReply(String prompt, Consumer<String> onText, Consumer<CompletionStats> onStats)
+            throws Exception {
+        busy.incrementAndGet();
+        try {
+            return generate(prompt, onText, onStats);
+        } finally {
+            busy.decrementAndGet();
+        }
+    }
+
+    private String generate(String prompt, Consumer<String> onText, Consumer<CompletionStats> onStats)
+            throws Exception {
+        LatencyController slo = latency;
+        LatencyController.Plan plan = slo.currentPlan();
+        LlamaPool target = plan.fallback() && fallbackPool != null ? fallbackPool : pool;
+        // the prefix cache belongs to the main model
+        File promptCache = null;
+        if (target == pool) {
+            promptCache = prefiller.cacheFor(prompt);
+        } else {
+            prefiller.cancel();
+        }
+
+        long start = System.nanoTime();
+        long[] firstText = {0};
+        StreamingSanitizer live = new StreamingSanitizer(BOT_NAME, MAX_REPLY_CHARS);
+        Consumer<String> timed = chunk -> {
+            if (firstText[0] == 0) {
+                firstText[0] = System.nanoTime();
+            }
+            if (onText != null) {
+                String safe = live.accept(chunk);
+                if (!safe.isEmpty()) {
+                    onText.accept(safe);
+                }
+            }
+        };
+
+        LlamaPool.Completion completion = target.completeWithStats(prompt, plan.nPredict(), timed, promptCache);
+        String reply = completion.text();
+        if (onText != null) {
+            String rest = live.finish();
+            if (!rest.isEmpty()) {
+                onText.accept(rest);
+            }
+        }
+
+        long end = System.nanoTime();
+        CompletionStats stats = completion.stats();
+        if (PRINT_STATS) {
+            System.out.println("[STATS] " + stats);
+        }
+        if (onStats != null) {
+            onStats.accept(stats);
+        }
+        int genTokens = stats.getGeneratedTokens() > 0
+                ? stats.getGeneratedTokens()
+                : ChatMessage.estimateTokens(reply == null ? "" : reply);
+        slo.record(target != pool,
+                ((firstText[0] == 0 ? end : firstText[0]) - start) / 1_000_000,
+                (end - start) / 1_000_000,
+                stats.getPromptTokens(), stats.getPromptTokensPerSec(), genTokens);
+
+        if (reply == null || reply.isEmpty()) {
+            return "";
+        }
+
+        // tidy + identity fix
+        reply = tidyReply(reply);
+        reply = sanitizeIdentity(reply);
+        responseCache.put(prompt, reply);
+        return reply;
+    }
+
+    /** While the user types: pre-evaluate the next prompt's known prefix in the background. */
+    public void prefillNextTurn(Conversation conversation) {
+        LatencyController.Plan plan = latency.currentPlan();
+        // a trimmed context, the fallback model or llama-speculative (no prompt cache) wouldn't use the prefix anyway
+        if (prefillEnabled && !plan.fallback() && plan.historyTokens() == Integer.MAX_VALUE && !pool.isSpeculative()) {
+            prefiller.start(conversation.buildPrefixForNextUserTurn());
+        }
+    }
+
+    // Shorten long replies & cut at a sentence end
+    public static String tidyReply(String reply) {
+        if (reply == null) return "";
+        String r = reply.trim();
+
+        if (r.length() > MAX_REPLY_CHARS) {
+            r = r.substring(0, MAX_REPLY_CHARS);
+        }
+
+        int lastDot  = r.lastIndexOf('.');
+        int lastBang = r.lastIndexOf('!');
+        int lastQ    = r.lastIndexOf('?');
+        int cut = Math.max(lastDot, Math.max(lastBang, lastQ));
+
+        if (cut > 60) {
+            r = r.substring(0, cut + 1);
+        }
+
+        return r.trim();
+    }
+
+    // Remove/replace bad identity lines like "I am Claude..."
+    public static String sanitizeIdentity(String text) {
+        if (text == null) return "";
+
+        String cleaned = text;
+
+        // Replace "Claude" with Mochi
+        cleaned = cleaned.replace("Claude", BOT_NAME);
+        cleaned = cleaned.replace("claude", BOT_NAME);
+
+        // Remove typical "I am Claude, a large language model..." intros
+        cleaned = cleaned.replaceAll("(?i)i am " + BOT_NAME + ",? a large language model[^.]*\\.", "");
+        cleaned = cleaned.replaceAll("(?i)i am a large language model[^.]*\\.", "");
+        cleaned = cleaned.replaceAll("(?i)i am an ai assistant[^.]*\\.", "");
+
+        // If we accidentally removed stuff leaving a dangling "?" at start
+        cleaned = cleaned.replaceAll("^\\s*\\?\\s*", "");
+
+        return cleaned.trim();
+    }
+
+    // -----------------------------
+    // Smarter memory
+    // -----------------------------
+
+    /** Summarize + prune the conversation when it got long. Returns true if memory was updated. */
+    public boolean maybeSummarize(Conversation conversation) {
+        if (!conversation.shouldSummarize()) {
+            return false;
+        }
+
+        try {
+            String summary = summarize(conversation.buildSummarizationSource(), null);
+            if (summary != null && !summary.isBlank()) {
+                applySummary(conversation, summary);
+                return true;
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.out.println("[MEMORY] Failed to summarize conversation.");
+        }
+        return false;
+    }
+
+    /**
+     * Idle-time summarization (MaintenanceScheduler) for a conversation that belongs to another
+     * thread: onOwner runs the read / update steps there and waits (e.g. the EDT), only the
+     * model runs on the maintenance thread. A new user message kills the model run.
+     */
+    public MaintenanceScheduler.Job summarizationJob(Conversation conversation, Consumer<Runnable> onOwner) {
+        return new MaintenanceScheduler.Job() {
+            @Override
+            public String name() {
+                return "Memory summarization";
+            }
+
+            @Override
+            public boolean isDue() {
+                return conversation.shouldSummarize();
+            }
+
+            @Override
+            public void run(MaintenanceScheduler.Preemption preemption) throws Exception {
+                String[] source = {null};
+                onOwner.accept(() -> {
+                    if (conversation.shouldSummarize()) {
+                        source[0] = conversation.buildSummarizationSource();
+                    }
+                });
+                if (source[0] == null || preemption.isPreempted()) return;
+
+                String summary = summarize(source[0], preemption::attach);
+                if (preemption.isPreempted()) return;
+                if (summary == null || summary.isBlank()) {
+                    // a failure as far as the scheduler is concerned, so it backs off instead of retrying every tick
+                    throw new IOException("model returned an empty summary");
+                }
+
+                // older turns only: anything added meanwhile is among the recent ones that are kept
+                onOwner.accept(() -> applySummary(conversation, summary));
+            }
+        };
+    }
+
+    /** Restart the idle clock and preempt background maintenance: a user message is coming. */
+    public void userActive() {
+        MaintenanceScheduler scheduler = maintenance;
+        if (scheduler != null) {
+            scheduler.userActive();
+        }
+    }
+
+    public void setMaintenanceScheduler(MaintenanceScheduler maintenance) {
+        this.maintenance = maintenance;
+    }
+
+    public MaintenanceScheduler getMaintenanceScheduler() {
+        return maintenance;
+    }
+
+    private String summarize(String source, Consumer<Process> onStart) throws IOException, InterruptedException {
+        String prompt =
+                "You are summarizing a chat between a user and an assistant named " + BOT_NAME + ".\n" +
+                        "Write 3–6 very short bullet points capturing only important, long-term facts about the user, " +
+                        "their preferences, and any ongoing tasks or projects.\n" +
+                        "Do not include greetings or small talk. Do not mention yourself.\n\n" +
+                        "Conversation:\n" + source;
+
+        return pool.completeCancellable(prompt, 128, onStart);
+    }
+
+    private static void applySummary(Conversation conversation, String summary) {
+        conversation.updateLongTermSummary(summary);
+        conversation.pruneHistoryAfterSummary();
+        System.out.println("[MEMORY] Long-term summary updated:");
+        System.out.println(summary);
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+/**
+ * ChatMessage
+ * One turn of the conversation.
+ * - role, text, timestamp, rough token count
+ * - the turn rendered with a ChatTemplate, cached so prompt building is just a join
+ */
+public class ChatMessage {
+
+    public enum Role {
+        USER,
+        ASSISTANT
+    }
+
+    private final Role role;
+    private final String text;
+    private final long timestamp;
+    private final int approxTokens;
+
+    // rendered segment + the template it was rendered for
+    private ChatTemplate renderedWith;
+    private String rendered;
+
+    public ChatMessage(Role role, String text, long timestamp) {
+        this.role = role;
+        this.text = text == null ? "" : text;
+        this.timestamp = timestamp;
+        this.approxTokens = estimateTokens(this.text);
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getApproxTokens() {
+        return approxTokens;
+    }
+
+    /** This turn in the given template; rendered once, then reused for every prompt. */
+    public String render(ChatTemplate template) {
+        if (template != renderedWith) {
+            rendered = template.renderMessage(role, text);
+            renderedWith = template;
+        }
+        return rendered;
+    }
+
+    // no tokenizer on the Java side; ~4 chars per token is close enough for budgeting
+    static int estimateTokens(String s) {
+        return s.isEmpty() ? 0 : Math.max(1, (s.length() + 3) / 4);
+    }
+}
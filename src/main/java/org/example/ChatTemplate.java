@@ -0,0 +1,87 @@
+package org.example;
+
+/**
+ * ChatTemplate
+ * How system text and chat turns are laid out in the prompt.
+ * - PLAIN:  "User: ..." / "Mochi: ..." lines (the original format)
+ * - CHATML: <|im_start|>role ... <|im_end|> blocks (Qwen, many others)
+ * - LLAMA3: <|start_header_id|>role<|end_header_id|> ... <|eot_id|> blocks
+ */
+public enum ChatTemplate {
+
+    PLAIN {
+        @Override
+        public String renderSystem(String content) {
+            return content;
+        }
+
+        @Override
+        public String renderMessage(ChatMessage.Role role, String text) {
+            return (role == ChatMessage.Role.USER ? "User: " : ChatEngine.BOT_NAME + ": ") + text + "\n";
+        }
+
+        @Override
+        public String generationPrefix() {
+            return "";
+        }
+    },
+
+    CHATML {
+        @Override
+        public String renderSystem(String content) {
+            return "<|im_start|>system\n" + content.trim() + "<|im_end|>\n";
+        }
+
+        @Override
+        public String renderMessage(ChatMessage.Role role, String text) {
+            return "<|im_start|>" + roleName(role) + "\n" + text + "<|im_end|>\n";
+        }
+
+        @Override
+        public String generationPrefix() {
+            return "<|im_start|>assistant\n";
+        }
+    },
+
+    LLAMA3 {
+        // no <|begin_of_text|>: llama.cpp adds BOS itself, a literal one would make it appear twice
+        @Override
+        public String renderSystem(String content) {
+            return "<|start_header_id|>system<|end_header_id|>\n\n" + content.trim() + "<|eot_id|>";
+        }
+
+        @Override
+        public String renderMessage(ChatMessage.Role role, String text) {
+            return "<|start_header_id|>" + roleName(role) + "<|end_header_id|>\n\n" + text + "<|eot_id|>";
+        }
+
+        @Override
+        public String generationPrefix() {
+            return "<|start_header_id|>assistant<|end_header_id|>\n\n";
+        }
+    };
+
+    /** The system block (instructions + long-term memory). */
+    public abstract String renderSystem(String content);
+
+    /** One chat turn. */
+    public abstract String renderMessage(ChatMessage.Role role, String text);
+
+    /** Appended after the last turn so the model answers as the assistant. */
+    public abstract String generationPrefix();
+
+    private static String roleName(ChatMessage.Role role) {
+        return role == ChatMessage.Role.USER ? "user" : "assistant";
+    }
+
+    /** Lenient lookup for -Dmochi.template=chatml etc.; unknown names fall back to PLAIN. */
+    public static ChatTemplate fromName(String name) {
+        if (name == null) return PLAIN;
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            System.out.println("[TEMPLATE] Unknown chat template \"" + name + "\", using PLAIN.");
+            return PLAIN;
+        }
+    }
+}
@@ -5,8 +5,11 @@ import javax.swing.border.AbstractBorder;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.awt.geom.RoundRectangle2D;
-import java.io.File;
+import java.io.*;
+import java.util.concurrent.Future;
 
 /**
  * ChatWindow *
@@ -16,15 +19,16 @@ import java.io.File;
  * - Typing indicator
  * - Smarter memory (Conversation)
  * - Rounded input + rounded Send button
- * - Local images via /img and auto filename detection
+ * - Local images via /img and auto filename detection (seen by a vision model if configured)
  * - Chat bubbles (Mochi left, You right, names next to bubbles)
  * - Replies trimmed & sanitized so Mochi doesn't call herself Claude
  * - Settings dialog (gear icon in top-right, with Memory tab)
+ * - Export / import of the whole chat + memory (Memory tab)
  */
 public class ChatWindow {
 
     // === BOT NAME ===
-    private static final String BOT_NAME = "Mochi";
+    private static final String BOT_NAME = ChatEngine.BOT_NAME;
 
     // === THEME SUPPORT ===
     private enum Theme {
@@ -58,13 +62,23 @@ public class ChatWindow {
     private static final String IMAGE_BASE_DIR =
             "C:\\\\Users\\\\Owen\\\\Pictures\\\\MochiImages";
 
+    // default file extension for Export Chat
+    private static final String ARCHIVE_EXT = ".mochichat";
+
     // === CORE OBJECTS ===
     private final Conversation conversation;
-    private final LlamaClient llamaClient;
+    private final ChatEngine engine;
+    private EdtWatchdog edtWatchdog;   // optional, feeds the Diagnostics tab
 
     // === UI COMPONENTS ===
     private JPanel chatPanel;
     private JScrollPane scrollPane;
+    private UiUpdateScheduler uiScheduler;   // batches adds / text appends / scrolling per frame
+    private final BubbleRenderer bubbleRenderer = new BubbleRenderer();
+
+    // marks bubble parts so a theme switch can recolor them (value: Boolean isUser)
+    private static final String BUBBLE_USER_KEY = "mochi.bubble.isUser";
+    private static final String BUBBLE_TEXT_KEY = "mochi.bubble.text";
     private JTextField inputField;
     private JButton sendButton;
     private JLabel statusLabel;
@@ -76,8 +90,20 @@ public class ChatWindow {
     private int typingDots = 0;
 
     public ChatWindow(Conversation conversation, LlamaClient llamaClient) {
+        this(conversation, llamaClient, new ResponseCache());
+    }
+
+    public ChatWindow(Conversation conversation, LlamaClient llamaClient, ResponseCache responseCache) {
+        this(conversation, new ChatEngine(llamaClient, responseCache));
+    }
+
+    public ChatWindow(Conversation conversation, ChatEngine engine) {
         this.conversation = conversation;
-        this.llamaClient = llamaClient;
+        this.engine = engine;
+    }
+
+    public void setEdtWatchdog(EdtWatchdog edtWatchdog) {
+        this.edtWatchdog = edtWatchdog;
     }
 
     // Call this before building the UI and whenever the user changes theme.
@@ -178,9 +204,9 @@ public class ChatWindow {
             settingsButton.setForeground(BOT_COLOR);
         }
 
-        // repaint chat area
+        // repaint chat area (bubbles pick up the new colors while painting)
         if (chatPanel != null) {
-            chatPanel.revalidate();
+            recolorBubbles(chatPanel);
             chatPanel.repaint();
         }
     }
@@ -224,6 +250,7 @@ public class ChatWindow {
         scrollPane = new JScrollPane(chatPanel);
         scrollPane.getViewport().setBackground(BG_DARK);
         scrollPane.setBorder(null);
+        uiScheduler = new UiUpdateScheduler(chatPanel, scrollPane);
 
         // --- INPUT FIELD ---
         inputField = new JTextField();
@@ -247,6 +274,16 @@ public class ChatWindow {
 
         inputField.addActionListener(this::handleSend);
         sendButton.addActionListener(this::handleSend);
+        // typing = not idle: background maintenance waits until the user pauses
+        inputField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyTyped(KeyEvent e) {
+                MaintenanceScheduler maintenance = engine.getMaintenanceScheduler();
+                if (maintenance != null) {
+                    maintenance.userTyping();
+                }
+            }
+        });
 
         // --- PANELS + LAYOUT ---
         inputPanel = new JPanel(new BorderLayout(5, 5));
@@ -328,6 +365,12 @@ public class ChatWindow {
                 memoryArea.setText("(No long-term memory saved yet.)");
             }
         });
+        JButton exportBtn = new JButton("Export Chat...");
+        exportBtn.addActionListener(ev -> exportConversation(dialog));
+        JButton importBtn = new JButton("Import Chat...");
+        importBtn.addActionListener(ev -> importConversation(dialog, memoryArea));
+        memButtons.add(exportBtn);
+        memButtons.add(importBtn);
         memButtons.add(clearMemBtn);
 
         memoryPanel.add(memScroll, BorderLayout.CENTER);
@@ -380,6 +423,36 @@ public class ChatWindow {
 
         tabs.addTab("General", generalPanel);
 
+        // Diagnostics tab (EDT stall report)
+        if (edtWatchdog != null) {
+            JPanel diagPanel = new JPanel(new BorderLayout(8, 8));
+            diagPanel.setBackground(BG_DARK);
+
+            JTextArea diagArea = new JTextArea(edtWatchdog.report());
+            diagArea.setEditable(false);
+            diagArea.setBackground(BG_PANEL);
+            diagArea.setForeground(TEXT_NORMAL);
+            diagArea.setBorder(new EmptyBorder(8, 8, 8, 8));
+            diagArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+            JScrollPane diagScroll = new JScrollPane(diagArea);
+            diagScroll.getViewport().setBackground(BG_DARK);
+
+            JPanel diagButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            diagButtons.setBackground(BG_PANEL);
+            JButton refreshBtn = new JButton("Refresh");
+            refreshBtn.addActionListener(ev -> diagArea.setText(edtWatchdog.report()));
+            JButton saveBtn = new JButton("Write Report");
+            saveBtn.addActionListener(ev -> edtWatchdog.writeReport());   // written on the watchdog's thread
+            diagButtons.add(refreshBtn);
+            diagButtons.add(saveBtn);
+
+            diagPanel.add(diagScroll, BorderLayout.CENTER);
+            diagPanel.add(diagButtons, BorderLayout.SOUTH);
+
+            tabs.addTab("Diagnostics", diagPanel);
+        }
+
         dialog.add(tabs, BorderLayout.CENTER);
 
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -395,6 +468,103 @@ public class ChatWindow {
         dialog.setVisible(true);
     }
 
+    // -------------------------------------------------
+    // export / import (ConversationArchive)
+    // -------------------------------------------------
+    private void exportConversation(Component parent) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("mochi-chat" + ARCHIVE_EXT));
+        if (chooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser.getSelectedFile();
+
+        // snapshot taken here on the EDT; the file is written on the journal's own thread
+        Future<Void> export = ConversationArchive.export(conversation,
+                () -> new BufferedOutputStream(new FileOutputStream(target)));
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                return ConversationArchive.await(export);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    setStatus("Exported chat to " + target.getName() + " (" + target.length() / 1024 + " KB).");
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(parent, "Export failed: " + failureMessage(ex),
+                            "Export Chat", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void importConversation(Component parent, JTextArea memoryArea) {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        File source = chooser.getSelectedFile();
+
+        int confirm = JOptionPane.showConfirmDialog(
+                parent,
+                "Replace the current chat and memory with " + source.getName() + "?",
+                "Import Chat",
+                JOptionPane.YES_NO_OPTION
+        );
+        if (confirm != JOptionPane.YES_OPTION) return;
+
+        setInputEnabled(false); // nobody else touches the conversation while it's replaced
+
+        new SwingWorker<ConversationArchive.Imported, Void>() {
+            @Override
+            protected ConversationArchive.Imported doInBackground() throws Exception {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+                    return ConversationArchive.read(in, true);
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    ConversationArchive.Imported imported = get();
+                    conversation.replaceWith(imported.conversation());
+                    System.out.println("[ARCHIVE] Imported " + imported.stats() + " from " + source);
+                    String mem = conversation.getLongTermSummary();
+                    memoryArea.setText(mem.isBlank() ? "(No long-term memory saved yet.)" : mem);
+                    reloadChatPanel();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(parent, "Import failed: " + failureMessage(ex),
+                            "Import Chat", JOptionPane.ERROR_MESSAGE);
+                } finally {
+                    setInputEnabled(true);
+                }
+            }
+        }.execute();
+    }
+
+    // what went wrong in a SwingWorker: get() wraps the real error (but not an interrupt / cancel),
+    // and plenty of IOExceptions have no message of their own
+    private static String failureMessage(Exception ex) {
+        Throwable c = ex.getCause() != null ? ex.getCause() : ex;
+        return c.getMessage() != null ? c.getMessage() : c.toString();
+    }
+
+    /** Rebuild the bubbles from the conversation's live history. */
+    private void reloadChatPanel() {
+        uiScheduler.flushNow();
+        chatPanel.removeAll();
+        for (ChatMessage m : conversation.getMessages()) {
+            boolean isUser = m.getRole() == ChatMessage.Role.USER;
+            appendTextBubble(isUser ? "You" : BOT_NAME, m.getText(), isUser);
+        }
+        uiScheduler.forceScrollToBottom();
+        uiScheduler.flushNow();
+        chatPanel.revalidate();
+        chatPanel.repaint();
+    }
+
     // -------------------------------------------------
     // sending + receiving messages
     // -------------------------------------------------
@@ -404,8 +574,10 @@ public class ChatWindow {
             return;
         }
 
+        engine.userActive(); // stop background maintenance, the backend is needed now
         inputField.setText("");
         appendTextBubble("You", userText, true);
+        uiScheduler.forceScrollToBottom();
 
         // 1) explicit /img command
         if (userText.toLowerCase().startsWith("/img ")) {
@@ -421,43 +593,65 @@ public class ChatWindow {
             return;
         }
 
-        // 3) normal AI chat
+        // 3) canned intents (e.g. name questions) → answer without starting llama-cli
+        String canned = engine.cannedReply(userText);
+        if (canned != null) {
+            conversation.addUser(userText);
+            appendTextBubble(BOT_NAME, canned, false);
+            conversation.addAssistant(canned);
+            return;
+        }
+
+        // 4) normal AI chat
         conversation.addUser(userText);
-        String prompt = conversation.buildTrimmedPrompt();
+        String prompt = engine.buildPrompt(conversation);
+
+        // same prompt seen before → reuse the reply
+        String cached = engine.cachedReply(prompt);
+        if (cached != null) {
+            appendTextBubble(BOT_NAME, cached, false);
+            conversation.addAssistant(cached);
+            return;
+        }
 
         setInputEnabled(false);
 
-        String userLower = userText.toLowerCase();
+        new SwingWorker<String, String>() {
+            // live bubble the (sanitized) tokens stream into; replaced by the final tidied reply in done()
+            private JTextArea streamArea;
+            private volatile CompletionStats stats;   // this reply's run, not whatever finished last
 
-        new SwingWorker<String, Void>() {
             @Override
             protected String doInBackground() {
                 try {
-                    return llamaClient.complete(prompt);
+                    return engine.generateReply(prompt, this::publish, s -> stats = s);
                 } catch (Exception ex) {
                     ex.printStackTrace();
                     return "[error running llama-cli]";
                 }
             }
 
+            @Override
+            protected void process(java.util.List<String> chunks) {
+                String text = String.join("", chunks);
+                if (streamArea == null) {
+                    text = text.stripLeading();
+                    if (text.isEmpty()) return;
+                    streamArea = appendTextBubble(BOT_NAME, "", false);
+                }
+                JTextArea area = streamArea;
+                uiScheduler.appendText(area, text, () -> fitTextBubble((JPanel) area.getParent(), area));
+            }
+
             @Override
             protected void done() {
                 try {
                     String reply = get();
                     if (reply == null || reply.isEmpty()) {
-                        appendTextBubble(BOT_NAME, "[no response]", false);
+                        showFinal("[no response]");
                         conversation.addAssistant("");
                     } else {
-                        // tidy + identity fix
-                        reply = tidyReply(reply);
-                        reply = sanitizeIdentity(reply);
-
-                        // special case: name questions → simple, clean answer
-                        if (isNameQuestion(userLower)) {
-                            reply = "My name is Mochi! I'm your offline AI assistant running on your computer.";
-                        }
-
-                        appendTextBubble(BOT_NAME, reply, false);
+                        showFinal(reply);
                         conversation.addAssistant(reply);
                     }
 
@@ -465,63 +659,35 @@ public class ChatWindow {
 
                 } catch (Exception ex) {
                     ex.printStackTrace();
-                    appendTextBubble(BOT_NAME, "[error getting result]", false);
+                    showFinal("[error getting result]");
                 } finally {
                     setInputEnabled(true);
+                    // model is idle until the next Send → get the next prompt's prefix ready
+                    engine.prefillNextTurn(conversation);
+                    if (stats != null && stats.getDraftedTokens() > 0) {
+                        statusLabel.setText(String.format("Ready. (draft accept %.0f%%, %.1f tok/s)",
+                                stats.getAcceptanceRate() * 100, stats.getEffectiveTokensPerSec()));
+                    }
+                    // latency target changed reply length / context / model → say so
+                    String adaptation = engine.getLatency().pollAdaptation();
+                    if (adaptation != null) {
+                        statusLabel.setText(adaptation);
+                    }
                 }
             }
-        }.execute();
-    }
-
-    // Shorten long replies & cut at a sentence end
-    private String tidyReply(String reply) {
-        if (reply == null) return "";
-        String r = reply.trim();
-
-        int maxChars = 600; // a bit more room
-        if (r.length() > maxChars) {
-            r = r.substring(0, maxChars);
-        }
-
-        int lastDot  = r.lastIndexOf('.');
-        int lastBang = r.lastIndexOf('!');
-        int lastQ    = r.lastIndexOf('?');
-        int cut = Math.max(lastDot, Math.max(lastBang, lastQ));
-
-        if (cut > 60) {
-            r = r.substring(0, cut + 1);
-        }
-
-        return r.trim();
-    }
 
-    // Remove/replace bad identity lines like "I am Claude..."
-    private String sanitizeIdentity(String text) {
-        if (text == null) return "";
-
-        String cleaned = text;
-
-        // Replace "Claude" with Mochi
-        cleaned = cleaned.replace("Claude", BOT_NAME);
-        cleaned = cleaned.replace("claude", BOT_NAME);
-
-        // Remove typical "I am Claude, a large language model..." intros
-        cleaned = cleaned.replaceAll("(?i)i am " + BOT_NAME + ",? a large language model[^.]*\\.", "");
-        cleaned = cleaned.replaceAll("(?i)i am a large language model[^.]*\\.", "");
-        cleaned = cleaned.replaceAll("(?i)i am an ai assistant[^.]*\\.", "");
-
-        // If we accidentally removed stuff leaving a dangling "?" at start
-        cleaned = cleaned.replaceAll("^\\s*\\?\\s*", "");
-
-        return cleaned.trim();
-    }
-
-    private boolean isNameQuestion(String lower) {
-        if (lower == null) return false;
-        return lower.contains("what's your name")
-                || lower.contains("whats your name")
-                || lower.contains("what is your name")
-                || lower.matches(".*who are you.*");
+            private void showFinal(String text) {
+                if (streamArea == null) {
+                    appendTextBubble(BOT_NAME, text, false);
+                    return;
+                }
+                uiScheduler.flushNow(); // apply any queued tokens before replacing them
+                streamArea.setText(text);
+                fitTextBubble((JPanel) streamArea.getParent(), streamArea);
+                chatPanel.revalidate();
+                chatPanel.repaint();
+            }
+        }.execute();
     }
 
     // -------------------------------------------------
@@ -552,7 +718,42 @@ public class ChatWindow {
         }
 
         appendImageBubble(BOT_NAME, icon, false);
-        conversation.addAssistant("I showed the image file \"" + fileName + "\" in the chat.");
+
+        if (!engine.hasVision()) {
+            conversation.addAssistant("I showed the image file \"" + fileName + "\" in the chat.");
+            return;
+        }
+
+        // let the vision model look at it (cached per image, so a repeat is instant)
+        setInputEnabled(false);
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return engine.describeImage(file);
+            }
+
+            @Override
+            protected void done() {
+                String description;
+                try {
+                    description = get();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    description = null;
+                }
+
+                if (description == null || description.isBlank()) {
+                    appendTextBubble(BOT_NAME, "I couldn't make out what's in that picture.", false);
+                    conversation.addAssistant("I showed the image file \"" + fileName + "\" in the chat.");
+                } else {
+                    appendTextBubble(BOT_NAME, description, false);
+                    // kept as text so follow-up questions don't need the image again
+                    conversation.addAssistant("I looked at the image \"" + fileName + "\": " + description);
+                }
+                setInputEnabled(true);
+                engine.prefillNextTurn(conversation);
+            }
+        }.execute();
     }
 
     private String detectImageFilename(String text) {
@@ -576,18 +777,35 @@ public class ChatWindow {
     // -------------------------------------------------
     // chat bubble helpers
     // -------------------------------------------------
-    private void appendTextBubble(String speaker, String text, boolean isUser) {
+    /**
+     * Load testing hook: push a message through the bubble + layout code without a frame,
+     * so it also works with -Djava.awt.headless=true. Call on the EDT.
+     */
+    void appendForReplay(String speaker, String text, boolean isUser) {
+        if (chatPanel == null) {
+            applyTheme(currentTheme);
+            chatPanel = new JPanel();
+            chatPanel.setLayout(new BoxLayout(chatPanel, BoxLayout.Y_AXIS));
+            scrollPane = new JScrollPane(chatPanel);
+            scrollPane.setSize(900, 400);
+            uiScheduler = new UiUpdateScheduler(chatPanel, scrollPane);
+        }
+        appendTextBubble(speaker, text, isUser);
+        uiScheduler.flushNow();
+    }
+
+    /** Adds a text bubble and returns its text area (for streaming into it). */
+    private JTextArea appendTextBubble(String speaker, String text, boolean isUser) {
         JPanel line = new JPanel();
         line.setLayout(new BoxLayout(line, BoxLayout.X_AXIS));
         line.setOpaque(false);
 
         JLabel nameLabel = new JLabel(speaker);
         nameLabel.setForeground(isUser ? USER_COLOR : BOT_COLOR);
+        nameLabel.putClientProperty(BUBBLE_USER_KEY, isUser);
         nameLabel.setFont(nameLabel.getFont().deriveFont(Font.BOLD, 12f));
 
-        JPanel bubble = createTextBubble(text,
-                isUser ? USER_BUBBLE_BG : BOT_BUBBLE_BG,
-                isUser ? Color.BLACK : TEXT_NORMAL);
+        JPanel bubble = createTextBubble(text, isUser);
 
         if (isUser) {
             line.add(Box.createHorizontalGlue());
@@ -602,6 +820,7 @@ public class ChatWindow {
         }
 
         addLineToChat(line);
+        return (JTextArea) bubble.getComponent(0);
     }
 
     private void appendImageBubble(String speaker, ImageIcon icon, boolean isUser) {
@@ -611,10 +830,10 @@ public class ChatWindow {
 
         JLabel nameLabel = new JLabel(speaker);
         nameLabel.setForeground(isUser ? USER_COLOR : BOT_COLOR);
+        nameLabel.putClientProperty(BUBBLE_USER_KEY, isUser);
         nameLabel.setFont(nameLabel.getFont().deriveFont(Font.BOLD, 12f));
 
-        JPanel bubble = createImageBubble(icon,
-                isUser ? USER_BUBBLE_BG : BOT_BUBBLE_BG);
+        JPanel bubble = createImageBubble(icon, isUser);
 
         if (isUser) {
             line.add(Box.createHorizontalGlue());
@@ -631,18 +850,8 @@ public class ChatWindow {
         addLineToChat(line);
     }
 
-    private JPanel createTextBubble(String text, Color bg, Color fg) {
-        JPanel bubble = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                Graphics2D g2 = (Graphics2D) g.create();
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setColor(bg);
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 18, 18);
-                g2.dispose();
-                super.paintComponent(g);
-            }
-        };
+    private JPanel createTextBubble(String text, boolean isUser) {
+        JPanel bubble = new BubblePanel(isUser);
 
         bubble.setOpaque(false);
         bubble.setLayout(new BorderLayout());
@@ -653,38 +862,35 @@ public class ChatWindow {
         area.setLineWrap(true);
         area.setEditable(false);
         area.setOpaque(false);
-        area.setForeground(fg);
+        area.setForeground(bubbleTextColor(isUser));
+        area.putClientProperty(BUBBLE_TEXT_KEY, Boolean.TRUE);
+        area.putClientProperty(BUBBLE_USER_KEY, isUser);
         area.setFont(area.getFont().deriveFont(13f));
 
+        bubble.add(area, BorderLayout.CENTER);
+        fitTextBubble(bubble, area);
+
+        bubble.revalidate();
+        return bubble;
+    }
+
+    // size a text bubble to its text (again after streamed text changed it)
+    private void fitTextBubble(JPanel bubble, JTextArea area) {
         // force measurement for fixed width
+        area.setPreferredSize(null);
         area.setSize(600, Short.MAX_VALUE);
         Dimension textSize = area.getPreferredSize();
         area.setPreferredSize(textSize);
 
-        bubble.add(area, BorderLayout.CENTER);
-
         bubble.setMaximumSize(new Dimension(600, textSize.height + 20));
         bubble.setPreferredSize(new Dimension(
                 Math.min(600, textSize.width + 20),
                 textSize.height + 20
         ));
-
-        bubble.revalidate();
-        return bubble;
     }
 
-    private JPanel createImageBubble(ImageIcon icon, Color bg) {
-        JPanel bubble = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                Graphics2D g2 = (Graphics2D) g.create();
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setColor(bg);
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 18, 18);
-                g2.dispose();
-                super.paintComponent(g);
-            }
-        };
+    private JPanel createImageBubble(ImageIcon icon, boolean isUser) {
+        JPanel bubble = new BubblePanel(isUser);
         bubble.setOpaque(false);
         bubble.setLayout(new BorderLayout());
         bubble.setBorder(new EmptyBorder(6, 10, 6, 10));
@@ -698,19 +904,52 @@ public class ChatWindow {
         return bubble;
     }
 
+    // Bubble background: color comes from the *current* theme at paint time, drawn by the shared renderer
+    private class BubblePanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean isUser;
+
+        BubblePanel(boolean isUser) {
+            this.isUser = isUser;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            bubbleRenderer.paintBackground(g, getWidth(), getHeight(),
+                    isUser ? USER_BUBBLE_BG : BOT_BUBBLE_BG);
+            super.paintComponent(g);
+        }
+    }
+
+    private Color bubbleTextColor(boolean isUser) {
+        return isUser ? Color.BLACK : TEXT_NORMAL;
+    }
+
+    // After a theme switch: recolor names + bubble text (backgrounds already follow the theme)
+    private void recolorBubbles(Container root) {
+        for (Component c : root.getComponents()) {
+            if (c instanceof JComponent jc && jc.getClientProperty(BUBBLE_USER_KEY) instanceof Boolean isUser) {
+                if (jc.getClientProperty(BUBBLE_TEXT_KEY) != null) {
+                    jc.setForeground(bubbleTextColor(isUser));
+                } else {
+                    jc.setForeground(isUser ? USER_COLOR : BOT_COLOR);
+                }
+            }
+            if (c instanceof Container child) {
+                recolorBubbles(child);
+            }
+        }
+    }
+
     private void addLineToChat(JPanel line) {
         JPanel wrapper = new JPanel(new BorderLayout());
         wrapper.setOpaque(false);
         wrapper.setBorder(new EmptyBorder(4, 8, 4, 8));
         wrapper.add(line, BorderLayout.CENTER);
 
-        chatPanel.add(wrapper);
-        chatPanel.revalidate();
-
-        SwingUtilities.invokeLater(() -> {
-            JScrollBar bar = scrollPane.getVerticalScrollBar();
-            bar.setValue(bar.getMaximum());
-        });
+        // added + laid out + scrolled with everything else in this frame
+        uiScheduler.addLine(wrapper);
     }
 
     // -------------------------------------------------
@@ -729,6 +968,15 @@ public class ChatWindow {
         }
     }
 
+    /** Thread-safe status bar update (used by background startup work). */
+    public void setStatus(String text) {
+        SwingUtilities.invokeLater(() -> {
+            if (statusLabel == null) return;
+            if (typingTimer != null && typingTimer.isRunning()) return; // don't fight the typing dots
+            statusLabel.setText(text);
+        });
+    }
+
     private void startTypingAnimation() {
         if (typingTimer != null && typingTimer.isRunning()) return;
 
@@ -753,30 +1001,24 @@ public class ChatWindow {
     // smarter memory integration
     // -------------------------------------------------
     private void maybeSummarizeIfNeeded() {
-        if (!conversation.shouldSummarize()) {
-            return;
+        if (engine.getMaintenanceScheduler() != null) {
+            return; // summarized later, while the user is idle (see Main)
         }
+        engine.maybeSummarize(conversation);
+    }
 
-        String source = conversation.buildSummarizationSource();
-
-        String prompt =
-                "You are summarizing a chat between a user and an assistant named " + BOT_NAME + ".\n" +
-                        "Write 3–6 very short bullet points capturing only important, long-term facts about the user, " +
-                        "their preferences, and any ongoing tasks or projects.\n" +
-                        "Do not include greetings or small talk. Do not mention yourself.\n\n" +
-                        "Conversation:\n" + source;
-
+    /** Run on the EDT and wait (for background jobs that read / update the conversation). */
+    static void runOnEdt(Runnable r) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            r.run();
+            return;
+        }
         try {
-            String summary = llamaClient.complete(prompt);
-            if (summary != null && !summary.isBlank()) {
-                conversation.updateLongTermSummary(summary);
-                conversation.pruneHistoryAfterSummary();
-                System.out.println("[MEMORY] Long-term summary updated:");
-                System.out.println(summary);
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            System.out.println("[MEMORY] Failed to summarize conversation.");
+            SwingUtilities.invokeAndWait(r);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (java.lang.reflect.InvocationTargetException ex) {
+            throw new IllegalStateException(ex.getCause());
         }
     }
 
@@ -784,6 +1026,8 @@ public class ChatWindow {
     // helper classes: rounded border + rounded button
     // -------------------------------------------------
     private static class RoundedBorder extends AbstractBorder {
+        private static final long serialVersionUID = 1L;
+
         private final int radius;
 
         public RoundedBorder(int radius) {
@@ -819,6 +1063,8 @@ public class ChatWindow {
     }
 
     private static class RoundedButton extends JButton {
+        private static final long serialVersionUID = 1L;
+
         private final int radius;
 
         public RoundedButton(String text, int radius) {
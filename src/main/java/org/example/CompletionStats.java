@@ -0,0 +1,187 @@
+package org.example;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CompletionStats
+ * Timing + speculative decoding numbers for one llama run.
+ * - Parsed from llama.cpp's perf / speculative log lines
+ * - Under llama-speculative the target's "eval time ... runs" counts verification batches, not
+ *   tokens, so its own "encoded / decoded N tokens" summary wins over the perf lines there
+ * - Wall clock time measured by LlamaClient
+ */
+public class CompletionStats {
+
+    // llama_perf_context_print: prompt eval time = 123.45 ms / 20 tokens ( 6.17 ms per token, 162.00 tokens per second)
+    private static final Pattern PROMPT_EVAL = Pattern.compile(
+            "prompt eval time\\s*=\\s*([\\d.]+) ms\\s*/\\s*(\\d+) tokens.*?([\\d.]+) tokens per second");
+
+    // llama_perf_context_print:        eval time = 812.00 ms / 127 runs ( 6.39 ms per token, 156.40 tokens per second)
+    private static final Pattern EVAL = Pattern.compile(
+            "(?<!prompt )eval time\\s*=\\s*([\\d.]+) ms\\s*/\\s*(\\d+) (?:runs|tokens).*?([\\d.]+) tokens per second");
+
+    // llama-speculative: "encoded   42 tokens in    0.512 seconds, speed:   82.031 t/s"
+    //                    "decoded  128 tokens in    1.804 seconds, speed:   70.953 t/s"
+    private static final Pattern SPEC_ENCODED = Pattern.compile(
+            "encoded\\s+(\\d+) tokens in\\s+([\\d.]+) seconds");
+    private static final Pattern SPEC_DECODED = Pattern.compile(
+            "decoded\\s+(\\d+) tokens in\\s+([\\d.]+) seconds");
+    // llama-speculative: "n_predict = 128" on a line of its own (same count as "decoded", in case that
+    // line is missing); llama-cli's "generate: n_ctx = 4096, ..., n_predict = 128, ..." must not match
+    private static final Pattern N_PREDICT = Pattern.compile("^\\s*n_predict\\s*=\\s*(\\d+)\\s*$");
+
+    // llama-speculative: "n_drafted = 96" / "n_accept  = 70"
+    private static final Pattern N_DRAFTED = Pattern.compile("n_drafted\\s*=\\s*(\\d+)");
+    private static final Pattern N_ACCEPT  = Pattern.compile("n_accept\\s*=\\s*(\\d+)");
+
+    // llama-server: "draft acceptance rate = 0.72917 ( 70 accepted / 96 generated)"
+    private static final Pattern SERVER_DRAFT = Pattern.compile(
+            "draft acceptance rate\\s*=\\s*[\\d.]+\\s*\\(\\s*(\\d+) accepted\\s*/\\s*(\\d+) generated");
+
+    private int promptTokens;
+    private double promptTokensPerSec;
+    private int generatedTokens;
+    private double generationTokensPerSec;
+    private int draftedTokens;
+    private int acceptedTokens;
+    private long wallMillis;
+    private boolean speculativeSummary;   // saw llama-speculative's totals: ignore the per-context perf lines
+
+    // -----------------------------
+    // Parsing
+    // -----------------------------
+
+    /** Feed one raw backend line; non-matching lines are ignored. */
+    public void parseLine(String line) {
+        if (line == null || line.isEmpty()) return;
+
+        Matcher m = SPEC_ENCODED.matcher(line);
+        if (m.find()) {
+            speculativeSummary = true;
+            promptTokens = Integer.parseInt(m.group(1));
+            promptTokensPerSec = rate(promptTokens, Double.parseDouble(m.group(2)));
+            return;
+        }
+
+        m = SPEC_DECODED.matcher(line);
+        if (m.find()) {
+            speculativeSummary = true;
+            generatedTokens = Integer.parseInt(m.group(1));
+            generationTokensPerSec = rate(generatedTokens, Double.parseDouble(m.group(2)));
+            return;
+        }
+
+        m = N_PREDICT.matcher(line);
+        if (m.find()) {
+            speculativeSummary = true;
+            generatedTokens = Integer.parseInt(m.group(1));
+            return;
+        }
+
+        // draft + target perf blocks follow the speculative summary; their counts are batches, not tokens
+        if (speculativeSummary) {
+            parseDraftLine(line);
+            return;
+        }
+
+        m = PROMPT_EVAL.matcher(line);
+        if (m.find()) {
+            promptTokens = Integer.parseInt(m.group(2));
+            promptTokensPerSec = Double.parseDouble(m.group(3));
+            return;
+        }
+
+        m = EVAL.matcher(line);
+        if (m.find()) {
+            generatedTokens = Integer.parseInt(m.group(2));
+            generationTokensPerSec = Double.parseDouble(m.group(3));
+            return;
+        }
+
+        parseDraftLine(line);
+    }
+
+    private void parseDraftLine(String line) {
+        Matcher m = SERVER_DRAFT.matcher(line);
+        if (m.find()) {
+            acceptedTokens = Integer.parseInt(m.group(1));
+            draftedTokens = Integer.parseInt(m.group(2));
+            return;
+        }
+
+        m = N_DRAFTED.matcher(line);
+        if (m.find()) {
+            draftedTokens = Integer.parseInt(m.group(1));
+            return;
+        }
+
+        m = N_ACCEPT.matcher(line);
+        if (m.find()) {
+            acceptedTokens = Integer.parseInt(m.group(1));
+        }
+    }
+
+    private static double rate(int tokens, double seconds) {
+        return seconds > 0 ? tokens / seconds : 0.0;
+    }
+
+    void setWallMillis(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    // -----------------------------
+    // Getters
+    // -----------------------------
+
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public double getPromptTokensPerSec() {
+        return promptTokensPerSec;
+    }
+
+    public int getGeneratedTokens() {
+        return generatedTokens;
+    }
+
+    public double getGenerationTokensPerSec() {
+        return generationTokensPerSec;
+    }
+
+    public int getDraftedTokens() {
+        return draftedTokens;
+    }
+
+    public int getAcceptedTokens() {
+        return acceptedTokens;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    /** Fraction of drafted tokens the target model accepted, 0..1 (0 when not speculating). */
+    public double getAcceptanceRate() {
+        return draftedTokens == 0 ? 0.0 : (double) acceptedTokens / draftedTokens;
+    }
+
+    /** Generated tokens over the whole wall clock run, including spawn + prompt eval. */
+    public double getEffectiveTokensPerSec() {
+        if (wallMillis <= 0) return 0.0;
+        return generatedTokens * 1000.0 / wallMillis;
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("%d tok in %d ms (%.1f tok/s effective, %.1f tok/s gen, %.1f tok/s prompt)",
+                generatedTokens, wallMillis, getEffectiveTokensPerSec(),
+                generationTokensPerSec, promptTokensPerSec);
+        if (draftedTokens > 0) {
+            s += String.format(", draft accept %.0f%% (%d/%d)",
+                    getAcceptanceRate() * 100, acceptedTokens, draftedTokens);
+        }
+        return s;
+    }
+}
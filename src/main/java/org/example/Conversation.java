@@ -6,19 +6,26 @@ import java.util.List;
 /**
  * Conversation
  * Handles:
- * - Full chat history
- * - Trimmed prompt building
+ * - Full chat history (ring buffer of structured ChatMessages)
+ * - Trimmed prompt building (join of cached, pre-rendered turns)
+ * - Chat templates (plain "User:/Mochi:", ChatML, Llama 3)
  * - Automatic summarization trigger
  * - Long-term memory storage
+ * - Archive journal: turns pruned from history are appended to disk (ConversationArchive)
  */
 public class Conversation {
 
     private static final int MAX_TURNS_BEFORE_SUMMARY = 12;   // when to summarize
     private static final int MAX_RECENT_TURNS = 8;            // how many to keep after summary
+    static final int HISTORY_CAPACITY = 64;           // hard cap if summarizing keeps failing
 
-    private final List<String> history = new ArrayList<>();
+    private final MessageRing history = new MessageRing(HISTORY_CAPACITY);
     private String longTermSummary = "";
 
+    private ChatTemplate template = ChatTemplate.PLAIN;
+    private String renderedSystem = null;   // system block cache, reset when memory/template change
+    private ConversationArchive.Journal journal = null;   // pruned turns go here; null = just drop them
+
     // System instruction so Mochi stops calling herself Claude/ChatGPT/etc.
     private static final String SYSTEM_PROMPT =
             "You are Mochi, a cute, friendly AI assistant running on the user's own computer.\n" +
@@ -26,17 +33,73 @@ public class Conversation {
                     "- Never say you are Claude, ChatGPT, Qwen, or any other model name.\n" +
                     "- Answer in a natural, conversational style.\n\n";
 
+    public void setTemplate(ChatTemplate template) {
+        this.template = template == null ? ChatTemplate.PLAIN : template;
+        this.renderedSystem = null;
+    }
+
+    public ChatTemplate getTemplate() {
+        return template;
+    }
+
+    public void setJournal(ConversationArchive.Journal journal) {
+        this.journal = journal;
+    }
+
+    public ConversationArchive.Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Take over everything from an imported conversation (history, memory, archive journal);
+     * this conversation's old journal is deleted. The template stays.
+     */
+    public void replaceWith(Conversation other) {
+        if (journal != null && journal != other.journal) {
+            journal.discard();
+        }
+        history.clear();
+        for (ChatMessage m : other.getMessages()) {
+            history.add(m);
+        }
+        longTermSummary = other.getLongTermSummary();
+        renderedSystem = null;
+        journal = other.journal;
+        other.journal = null;
+    }
+
     // -----------------------------
     // Add messages
     // -----------------------------
 
     public void addUser(String text) {
-        history.add("User: " + text);
+        add(new ChatMessage(ChatMessage.Role.USER, text, System.currentTimeMillis()));
     }
 
     public void addAssistant(String text) {
-        // Use Mochi as the speaker name in the prompt
-        history.add("Mochi: " + text);
+        // rendered with Mochi as the speaker name in the prompt
+        add(new ChatMessage(ChatMessage.Role.ASSISTANT, text, System.currentTimeMillis()));
+    }
+
+    /** Put back a message from an export (keeps its original timestamp). */
+    void restoreMessage(ChatMessage msg) {
+        add(msg);
+    }
+
+    private void add(ChatMessage msg) {
+        if (history.size() == history.capacity()) {
+            archive(1); // the ring is about to overwrite the oldest turn
+        }
+        history.add(msg);
+    }
+
+    /** All messages currently in history, oldest first. */
+    public List<ChatMessage> getMessages() {
+        List<ChatMessage> list = new ArrayList<>(history.size());
+        for (int i = 0; i < history.size(); i++) {
+            list.add(history.get(i));
+        }
+        return list;
     }
 
     // -----------------------------
@@ -44,24 +107,74 @@ public class Conversation {
     // -----------------------------
 
     public String buildTrimmedPrompt() {
+        return buildTrimmedPrompt(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like buildTrimmedPrompt(), but with at most about historyTokens of recent turns
+     * (newest first; the latest turn is always kept).
+     */
+    public String buildTrimmedPrompt(int historyTokens) {
         StringBuilder sb = new StringBuilder();
 
-        // System instructions first
-        sb.append(SYSTEM_PROMPT);
+        // System instructions (+ memory) first
+        sb.append(systemBlock());
 
-        if (!longTermSummary.isBlank()) {
-            sb.append("Long-term memory about the user:\n");
-            sb.append(longTermSummary).append("\n\n");
+        int start = Math.max(0, history.size() - MAX_RECENT_TURNS);
+        int tokens = 0;
+        for (int i = history.size() - 1; i > start; i--) {
+            tokens += history.get(i).getApproxTokens();
+            if (tokens + history.get(i - 1).getApproxTokens() > historyTokens) {
+                start = i;
+                break;
+            }
+        }
+        for (int i = start; i < history.size(); i++) {
+            sb.append(history.get(i).render(template));
         }
 
-        int start = Math.max(0, history.size() - MAX_RECENT_TURNS);
+        sb.append(template.generationPrefix());
+        return sb.toString();
+    }
+
+    /**
+     * The part of the next prompt that is already known before the user types:
+     * buildTrimmedPrompt() after the next addUser(...) starts with exactly this.
+     */
+    public String buildPrefixForNextUserTurn() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(systemBlock());
+
+        // one slot is taken by the upcoming user message
+        int start = Math.max(0, history.size() + 1 - MAX_RECENT_TURNS);
         for (int i = start; i < history.size(); i++) {
-            sb.append(history.get(i)).append("\n");
+            sb.append(history.get(i).render(template));
         }
 
         return sb.toString();
     }
 
+    /** Rough token count of the trimmed prompt's history part. */
+    public int recentTokenEstimate() {
+        int tokens = 0;
+        int start = Math.max(0, history.size() - MAX_RECENT_TURNS);
+        for (int i = start; i < history.size(); i++) {
+            tokens += history.get(i).getApproxTokens();
+        }
+        return tokens;
+    }
+
+    private String systemBlock() {
+        if (renderedSystem == null) {
+            String content = SYSTEM_PROMPT;
+            if (!longTermSummary.isBlank()) {
+                content += "Long-term memory about the user:\n" + longTermSummary + "\n\n";
+            }
+            renderedSystem = template.renderSystem(content);
+        }
+        return renderedSystem;
+    }
+
     // -----------------------------
     // Summarization logic
     // -----------------------------
@@ -71,15 +184,18 @@ public class Conversation {
     }
 
     public String buildSummarizationSource() {
+        // always plain "User:/Mochi:" lines; the summary prompt is plain text too
         StringBuilder sb = new StringBuilder();
-        for (String msg : history) {
-            sb.append(msg).append("\n");
+        for (int i = 0; i < history.size(); i++) {
+            ChatMessage m = history.get(i);
+            sb.append(ChatTemplate.PLAIN.renderMessage(m.getRole(), m.getText()));
         }
         return sb.toString();
     }
 
     public void updateLongTermSummary(String summary) {
         this.longTermSummary = summary == null ? "" : summary.trim();
+        this.renderedSystem = null;
     }
 
     public void pruneHistoryAfterSummary() {
@@ -87,10 +203,19 @@ public class Conversation {
             return;
         }
 
-        int start = history.size() - MAX_RECENT_TURNS;
-        List<String> recent = new ArrayList<>(history.subList(start, history.size()));
-        history.clear();
-        history.addAll(recent);
+        int drop = history.size() - MAX_RECENT_TURNS;
+        archive(drop);
+        history.dropOldest(drop);
+    }
+
+    // queued on the journal's own thread, so this never does file I/O on the caller's (often the EDT)
+    private void archive(int oldest) {
+        if (journal == null) return;
+        List<ChatMessage> dropped = new ArrayList<>(oldest);
+        for (int i = 0; i < oldest; i++) {
+            dropped.add(history.get(i));
+        }
+        journal.append(dropped);
     }
 
     // -----------------------------
@@ -103,11 +228,16 @@ public class Conversation {
 
     public void clearLongTermSummary() {
         longTermSummary = "";
+        renderedSystem = null;
     }
 
-    // Optional: clear everything
+    // Optional: clear everything (archived turns included)
     public void clearAllHistory() {
         history.clear();
         longTermSummary = "";
+        renderedSystem = null;
+        if (journal != null) {
+            journal.clear();
+        }
     }
 }
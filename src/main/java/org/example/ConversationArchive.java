@@ -0,0 +1,494 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * ConversationArchive
+ * Backup / move a conversation between machines, and keep pruned turns on disk.
+ * Handles:
+ * - Export: long-term summary + archived turns + live history as one deflated stream
+ * - Import: decoded into a fresh conversation + journal; the caller swaps it in only once the
+ *   whole stream checked out, so a bad file never touches the current chat
+ * - Archive journal (Journal): append-only file that pruned turns are written to instead of being
+ *   dropped; when the user is idle its records are deflated into a new segment file
+ *
+ * Every journal has its own writer thread and all of its file I/O runs there, in submission order:
+ * appends from the UI thread are queued, never written on the EDT, and one conversation's export or
+ * compaction doesn't hold up any other conversation.
+ *
+ * Export file layout:
+ *   "MOCHIARC" + version byte, then a deflate stream of records
+ * Record (also the journal layout, uncompressed):
+ *   type byte, payload length (int), payload
+ *   SUMMARY  payload = UTF-8 text
+ *   ARCHIVED / MESSAGE payload = role byte, timestamp (long), UTF-8 text
+ *   END      payload = empty
+ * Unknown record types are skipped, so newer exports still import here.
+ */
+public class ConversationArchive {
+
+    private static final byte[] MAGIC = "MOCHIARC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private static final byte SUMMARY = 'S';
+    private static final byte ARCHIVED = 'A';
+    private static final byte MESSAGE = 'M';
+    private static final byte END = 'E';
+
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;   // anything bigger is corruption
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final long COMPACT_AFTER_BYTES = 256 * 1024;     // plain journal size worth compacting
+
+    private static final AtomicInteger journalCounter = new AtomicInteger();
+
+    /** What an import brought in. */
+    public record ImportStats(boolean summary, int archived, int live, int skipped) {
+        @Override
+        public String toString() {
+            return live + " messages, " + archived + " archived turns" +
+                    (summary ? ", memory" : "") + (skipped > 0 ? " (" + skipped + " unknown records skipped)" : "");
+        }
+    }
+
+    /** A fully read import: hand conversation to Conversation.replaceWith(...) on the owner thread. */
+    public record Imported(Conversation conversation, ImportStats stats) {
+    }
+
+    private ConversationArchive() {
+    }
+
+    // -----------------------------
+    // Export
+    // -----------------------------
+
+    /**
+     * Snapshot the conversation now (call on the thread that owns it) and write the export on its
+     * journal's writer thread, after every archive append queued so far. openOut is called there;
+     * the stream is closed afterwards. Wait for the result with await(...), off the UI thread.
+     */
+    public static Future<Void> export(Conversation convo, Callable<OutputStream> openOut) {
+        String summary = convo.getLongTermSummary();
+        List<ChatMessage> live = convo.getMessages();
+        Journal journal = convo.getJournal();
+
+        Callable<Void> task = () -> {
+            try (OutputStream out = openOut.call()) {
+                writeExport(summary, journal, live, out);
+            }
+            return null;
+        };
+        if (journal != null) {
+            return journal.submit(task);
+        }
+        FutureTask<Void> future = new FutureTask<>(task);
+        Thread.ofVirtual().name("mochi-export").start(future);
+        return future;
+    }
+
+    /** Wait for an export / journal task; its IOException comes out as is. */
+    public static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause);
+        }
+    }
+
+    // runs on the journal's writer thread (or a private one when there is no journal)
+    private static void writeExport(String summary, Journal journal, List<ChatMessage> live,
+                                    OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream(out, deflater, BUFFER_BYTES);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(zip, BUFFER_BYTES));
+
+            if (summary != null && !summary.isBlank()) {
+                writeRecord(data, SUMMARY, summary.getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (journal != null) {
+                journal.copyArchived(data, () -> false);
+            }
+
+            for (ChatMessage m : live) {
+                writeRecord(data, MESSAGE, encodeMessage(m));
+            }
+
+            writeRecord(data, END, new byte[0]);
+            data.flush();
+            zip.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // -----------------------------
+    // Import
+    // -----------------------------
+
+    /**
+     * Read a whole export from in (not closed) into a new conversation. With keepArchive, archived
+     * turns are streamed into a new journal as they are read (never all in memory); without, they are
+     * counted but dropped. Nothing existing is touched: if the stream is bad or truncated, the new
+     * journal is deleted and an IOException is thrown. Safe to call on any thread.
+     */
+    public static Imported read(InputStream in, boolean keepArchive) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!java.util.Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a Mochi conversation export");
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported export version " + version);
+        }
+
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), BUFFER_BYTES));
+
+        // nobody else can see this journal yet, so it's written right here instead of on its thread
+        Journal journal = keepArchive ? Journal.createTemp() : null;
+        String summary = null;
+        ArrayDeque<ChatMessage> live = new ArrayDeque<>();
+        int archived = 0;
+        int liveCount = 0;
+        int skipped = 0;
+        boolean ended = false;
+
+        try {
+            try (DataOutputStream journalOut = journal == null ? null : appendJournal(journal.plain)) {
+                Record r;
+                while (!ended && (r = readRecord(data)) != null) {
+                    switch (r.type) {
+                        case SUMMARY -> summary = new String(r.payload, StandardCharsets.UTF_8);
+                        case ARCHIVED -> {
+                            decodeMessage(r.payload); // validate before keeping it
+                            if (journalOut != null) {
+                                writeRecord(journalOut, ARCHIVED, r.payload);
+                            }
+                            archived++;
+                        }
+                        case MESSAGE -> {
+                            live.addLast(decodeMessage(r.payload));
+                            liveCount++;
+                            if (live.size() > Conversation.HISTORY_CAPACITY) {
+                                // same as a full ring: the oldest turn moves to the archive
+                                ChatMessage oldest = live.removeFirst();
+                                if (journalOut != null) {
+                                    writeRecord(journalOut, ARCHIVED, encodeMessage(oldest));
+                                }
+                            }
+                        }
+                        case END -> ended = true;
+                        default -> skipped++;
+                    }
+                }
+            }
+            if (!ended) {
+                throw new EOFException("Export is truncated (read " + liveCount + " messages, " +
+                        archived + " archived turns); nothing was imported");
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (journal != null) {
+                journal.discard();
+            }
+            throw ex;
+        }
+
+        Conversation convo = new Conversation();
+        if (summary != null) {
+            convo.updateLongTermSummary(summary);
+        }
+        for (ChatMessage m : live) {
+            convo.restoreMessage(m);
+        }
+        convo.setJournal(journal);
+        return new Imported(convo, new ImportStats(summary != null, archived, liveCount, skipped));
+    }
+
+    // -----------------------------
+    // Archive journal
+    // -----------------------------
+
+    /**
+     * One conversation's archived turns: a plain append-only file plus deflated segments
+     * (plain + ".z1", ".z2", ...; oldest first). All file work runs on the journal's own writer
+     * thread, in the order it was submitted.
+     */
+    public static final class Journal {
+        private final File plain;
+        private final List<File> segments = new ArrayList<>();   // writer thread only
+        private final ThreadPoolExecutor writer;
+
+        // journals not discarded yet; whatever is still here at exit is deleted by one shutdown hook
+        // (instead of File.deleteOnExit(), whose list only grows in a long-running headless server)
+        private static final Set<Journal> LIVE = ConcurrentHashMap.newKeySet();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (Journal journal : LIVE) {
+                    deleteFiles(journal.plain);
+                }
+            }, "mochi-archive-cleanup"));
+        }
+
+        private Journal(File plain) {
+            this.plain = plain;
+            // one thread, created on demand and gone again after a quiet minute
+            this.writer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    Thread.ofVirtual().name("mochi-archive-writer").factory());
+            this.writer.allowCoreThreadTimeOut(true);
+        }
+
+        /** A fresh journal in the temp dir for one conversation; its files go with discard() or at exit. */
+        public static Journal createTemp() {
+            File f = new File(System.getProperty("java.io.tmpdir"),
+                    "mochi-archive-" + ProcessHandle.current().pid() + "-" + journalCounter.incrementAndGet() + ".journal");
+            deleteFiles(f); // left over from a crashed process with the same pid
+            Journal journal = new Journal(f);
+            LIVE.add(journal);
+            return journal;
+        }
+
+        /** Queue pruned turns for appending; returns at once (safe on the EDT). */
+        public void append(List<ChatMessage> messages) {
+            if (messages.isEmpty()) return;
+            List<ChatMessage> copy = List.copyOf(messages);
+            submit(() -> {
+                try (DataOutputStream out = appendJournal(plain)) {
+                    for (ChatMessage m : copy) {
+                        writeRecord(out, ARCHIVED, encodeMessage(m));
+                    }
+                } catch (IOException ex) {
+                    System.out.println("[ARCHIVE] Failed to archive " + copy.size() + " turns: " + ex.getMessage());
+                }
+                return null;
+            });
+        }
+
+        /** Run task on the writer thread after everything queued so far. */
+        public <T> Future<T> submit(Callable<T> task) {
+            try {
+                return writer.submit(task);
+            } catch (RejectedExecutionException ex) {
+                // a session dropped while a reply or a maintenance job was still using it
+                return CompletableFuture.failedFuture(new IOException("Archive journal was discarded"));
+            }
+        }
+
+        /** Queue removal of every archived turn; the journal stays usable. */
+        public void clear() {
+            submit(() -> {
+                deleteFiles(plain);
+                segments.clear();
+                return null;
+            });
+        }
+
+        /**
+         * Queue removal of the files and retire the writer thread; the journal is done after this.
+         * Call it whenever a conversation goes away (session evicted, replaced by an import).
+         */
+        public void discard() {
+            submit(() -> {
+                deleteFiles(plain);
+                segments.clear();
+                LIVE.remove(this);
+                return null;
+            });
+            writer.shutdown();
+        }
+
+        /** Size of the not-yet-compacted part (any thread). */
+        public long plainBytes() {
+            return plain.length();
+        }
+
+        /**
+         * Deflate the plain journal into a new segment and empty it. Only the new records are read and
+         * written, older segments are left alone, so every compaction costs the same. Also drops a torn
+         * record at the end. Stops without changing anything when stop turns true.
+         * Returns true if the journal was compacted. Writer thread only (see submit).
+         */
+        boolean compact(BooleanSupplier stop) throws IOException {
+            if (!plain.isFile() || plain.length() == 0) {
+                return false;
+            }
+            File segment = new File(plain.getPath() + ".z" + (segments.size() + 1));
+            File tmp = new File(segment.getPath() + ".tmp");
+            long before = plain.length();
+
+            int count;
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream zip = new DeflaterOutputStream(new FileOutputStream(tmp), deflater, BUFFER_BYTES);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(zip, BUFFER_BYTES));
+                 DataInputStream in = openJournal(plain)) {
+                count = copyRecords(in, data, stop, 0);
+            } finally {
+                deflater.end();
+            }
+
+            if (count < 0) {
+                tmp.delete();
+                return false;
+            }
+            Files.move(tmp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            segments.add(segment);
+            plain.delete();
+            System.out.println("[ARCHIVE] Compacted " + count + " archived turns: " +
+                    before / 1024 + " KB -> " + segment.length() / 1024 + " KB (segment " + segments.size() + ")");
+            return true;
+        }
+
+        /**
+         * Write every archived turn (segments oldest first, then the plain journal) to out.
+         * Returns the number copied, or -1 if stop turned true. Writer thread only.
+         */
+        int copyArchived(DataOutputStream out, BooleanSupplier stop) throws IOException {
+            int count = 0;
+            for (File segment : segments) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new InflaterInputStream(new FileInputStream(segment)), BUFFER_BYTES))) {
+                    count = copyRecords(in, out, stop, count);
+                }
+                if (count < 0) return count;
+            }
+            if (plain.isFile()) {
+                try (DataInputStream in = openJournal(plain)) {
+                    count = copyRecords(in, out, stop, count);
+                }
+            }
+            return count;
+        }
+
+        // plain journal + segments .z1, .z2, ... (numbered without gaps) + a half-written segment
+        private static void deleteFiles(File plain) {
+            plain.delete();
+            for (int i = 1; ; i++) {
+                boolean tmp = new File(plain.getPath() + ".z" + i + ".tmp").delete();
+                if (!new File(plain.getPath() + ".z" + i).delete() && !tmp) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Idle-time job: compact a conversation's journal once it has grown past COMPACT_AFTER_BYTES. */
+    public static MaintenanceScheduler.Job compactionJob(Conversation convo) {
+        return new MaintenanceScheduler.Job() {
+            @Override
+            public String name() {
+                return "Journal compaction";
+            }
+
+            @Override
+            public boolean isDue() {
+                Journal journal = convo.getJournal();
+                return journal != null && journal.plainBytes() >= COMPACT_AFTER_BYTES;
+            }
+
+            @Override
+            public void run(MaintenanceScheduler.Preemption preemption) throws Exception {
+                Journal journal = convo.getJournal();
+                if (journal != null) {
+                    await(journal.submit(() -> journal.compact(preemption::isPreempted)));
+                }
+            }
+        };
+    }
+
+    private static int copyRecords(DataInputStream in, DataOutputStream out, BooleanSupplier stop, int count)
+            throws IOException {
+        Record r;
+        while ((r = readRecord(in)) != null) {
+            if (r.type == ARCHIVED) {
+                writeRecord(out, ARCHIVED, r.payload);
+                count++;
+                if ((count & 255) == 0 && stop.getAsBoolean()) {
+                    return -1;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static DataOutputStream appendJournal(File journal) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true), BUFFER_BYTES));
+    }
+
+    private static DataInputStream openJournal(File journal) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(journal), BUFFER_BYTES));
+    }
+
+    // -----------------------------
+    // Records
+    // -----------------------------
+
+    private record Record(byte type, byte[] payload) {
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /** Next record, or null at the end (a torn record at the end of a journal counts as the end). */
+    private static Record readRecord(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        try {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                throw new IOException("Corrupt record (length " + length + ")");
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return new Record((byte) type, payload);
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    private static byte[] encodeMessage(ChatMessage m) throws IOException {
+        byte[] text = m.getText().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9 + text.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(m.getRole() == ChatMessage.Role.USER ? 'U' : 'B');
+        out.writeLong(m.getTimestamp());
+        out.write(text);
+        return bytes.toByteArray();
+    }
+
+    private static ChatMessage decodeMessage(byte[] payload) throws IOException {
+        if (payload.length < 9) {
+            throw new IOException("Corrupt message record");
+        }
+        ChatMessage.Role role = switch (payload[0]) {
+            case 'U' -> ChatMessage.Role.USER;
+            case 'B' -> ChatMessage.Role.ASSISTANT;
+            default -> throw new IOException("Corrupt message record (role " + payload[0] + ")");
+        };
+        long timestamp = new DataInputStream(new ByteArrayInputStream(payload, 1, 8)).readLong();
+        String text = new String(payload, 9, payload.length - 9, StandardCharsets.UTF_8);
+        return new ChatMessage(role, text, timestamp);
+    }
+}
@@ -0,0 +1,241 @@
+package org.example;
+
+import javax.swing.SwingUtilities;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EdtWatchdog
+ * Measures how quickly the Swing event thread picks up work and catches stalls.
+ * - Posts a tiny probe with invokeLater every PROBE_INTERVAL_MS
+ * - If the probe hasn't run after the threshold, grabs the EDT's stack trace
+ * - Stalls are grouped by call site (first org.example frame, else first non-JDK frame)
+ * - report() is shown in Settings → Diagnostics and written to logs/edt-stalls.txt
+ * The lock only guards the counters: report() formats a snapshot, and the file is written on
+ * the watchdog's own writer thread, so neither the EDT nor the probe loop waits on disk I/O.
+ */
+public class EdtWatchdog {
+
+    private static final long PROBE_INTERVAL_MS = 100;
+    private static final long POLL_MS = 10;
+    private static final int MAX_STACK_LINES = 12;
+
+    private static class StallSite {
+        int count;
+        long totalMs;
+        long maxMs;
+        String sampleStack;
+    }
+
+    // copy of one site, taken under the lock
+    private record SiteSnapshot(String key, int count, long totalMs, long maxMs, String sampleStack) {
+    }
+
+    private final long thresholdMs;
+    private final File reportFile;
+
+    private final Map<String, StallSite> sites = new LinkedHashMap<>();
+    private volatile Thread edtThread;
+    private volatile boolean running;
+
+    // probe latency
+    private long probes;
+    private long latencyTotalMs;
+    private long latencyMaxMs;
+
+    // report file writes, coalesced: a burst of stalls queues at most one more write
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "edt-watchdog-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+
+    public EdtWatchdog(long thresholdMs, File reportFile) {
+        this.thresholdMs = thresholdMs;
+        this.reportFile = reportFile;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        Thread t = new Thread(this::loop, "edt-watchdog");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        writeReportNow();
+    }
+
+    // -----------------------------
+    // Probe loop
+    // -----------------------------
+
+    private void loop() {
+        while (running) {
+            long posted = System.nanoTime();
+            long[] ranAt = {0};
+
+            SwingUtilities.invokeLater(() -> {
+                edtThread = Thread.currentThread();
+                synchronized (ranAt) {
+                    ranAt[0] = System.nanoTime();
+                }
+            });
+
+            String stallKey = null;
+            long doneAt;
+            while (true) {
+                synchronized (ranAt) {
+                    doneAt = ranAt[0];
+                }
+                if (doneAt != 0 || !running) break;
+
+                long waitedMs = (System.nanoTime() - posted) / 1_000_000;
+                if (stallKey == null && waitedMs >= thresholdMs && edtThread != null) {
+                    stallKey = sampleStall();
+                }
+                sleep(POLL_MS);
+            }
+            if (doneAt == 0) break;
+
+            long latencyMs = (doneAt - posted) / 1_000_000;
+            recordLatency(latencyMs, stallKey);
+
+            sleep(PROBE_INTERVAL_MS);
+        }
+    }
+
+    /** Capture the EDT's stack right now and return the call site it's stuck in. */
+    private String sampleStall() {
+        StackTraceElement[] stack = edtThread.getStackTrace();
+
+        // attribute to our own code if possible, otherwise the first non-JDK frame
+        StackTraceElement site = null;
+        for (StackTraceElement frame : stack) {
+            if (frame.getClassName().startsWith("org.example.")) {
+                site = frame;
+                break;
+            }
+            if (site == null && !isJdkFrame(frame)) {
+                site = frame;
+            }
+        }
+        if (site == null && stack.length > 0) {
+            site = stack[0];
+        }
+        String key = site == null ? "(unknown)"
+                : site.getClassName() + "." + site.getMethodName() + "(" + site.getFileName() + ")";
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(stack.length, MAX_STACK_LINES); i++) {
+            sb.append("    at ").append(stack[i]).append('\n');
+        }
+
+        synchronized (this) {
+            sites.computeIfAbsent(key, k -> new StallSite()).sampleStack = sb.toString();
+        }
+        return key;
+    }
+
+    private static boolean isJdkFrame(StackTraceElement frame) {
+        String c = frame.getClassName();
+        return c.startsWith("java.") || c.startsWith("javax.") || c.startsWith("sun.") || c.startsWith("jdk.");
+    }
+
+    private void recordLatency(long latencyMs, String stallKey) {
+        synchronized (this) {
+            probes++;
+            latencyTotalMs += latencyMs;
+            latencyMaxMs = Math.max(latencyMaxMs, latencyMs);
+
+            if (stallKey == null) return;
+            StallSite site = sites.get(stallKey);
+            site.count++;
+            site.totalMs += latencyMs;
+            site.maxMs = Math.max(site.maxMs, latencyMs);
+        }
+        System.out.println("[EDT] Stall of " + latencyMs + " ms in " + stallKey);
+        writeReport();
+    }
+
+    // -----------------------------
+    // Reporting
+    // -----------------------------
+
+    public String report() {
+        long probeCount;
+        long total;
+        long max;
+        List<SiteSnapshot> sorted = new ArrayList<>();
+        synchronized (this) {
+            probeCount = probes;
+            total = latencyTotalMs;
+            max = latencyMaxMs;
+            for (Map.Entry<String, StallSite> e : sites.entrySet()) {
+                StallSite s = e.getValue();
+                if (s.count > 0) {
+                    sorted.add(new SiteSnapshot(e.getKey(), s.count, s.totalMs, s.maxMs, s.sampleStack));
+                }
+            }
+        }
+        sorted.sort((a, b) -> Long.compare(b.totalMs(), a.totalMs()));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("EDT responsiveness (").append(LocalDateTime.now().withNano(0)).append(")\n");
+        sb.append(String.format("probes: %d, avg latency: %.1f ms, max latency: %d ms, stall threshold: %d ms%n%n",
+                probeCount, probeCount == 0 ? 0.0 : (double) total / probeCount, max, thresholdMs));
+
+        if (sorted.isEmpty()) {
+            sb.append("No stalls recorded.\n");
+            return sb.toString();
+        }
+
+        for (SiteSnapshot s : sorted) {
+            sb.append(String.format("%s%n  stalls: %d, total: %d ms, max: %d ms%n",
+                    s.key(), s.count(), s.totalMs(), s.maxMs()));
+            sb.append(s.sampleStack()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Write logs/edt-stalls.txt in the background; safe to call from the EDT. */
+    public void writeReport() {
+        if (reportFile == null) return;
+        if (writeQueued.compareAndSet(false, true)) {
+            writer.execute(() -> {
+                writeQueued.set(false);
+                writeReportNow();
+            });
+        }
+    }
+
+    private void writeReportNow() {
+        if (reportFile == null) return;
+        String text = report();
+        File dir = reportFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            w.write(text);
+        } catch (IOException ex) {
+            System.out.println("[EDT] Failed to write " + reportFile + ": " + ex.getMessage());
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
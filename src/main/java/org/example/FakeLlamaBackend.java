@@ -0,0 +1,169 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * FakeLlamaBackend
+ * Stand-in for llama-cli when load testing without a real model.
+ * - Accepts the same arguments LlamaClient passes (-f, -p, --n-predict, ...)
+ * - With --model-draft it echoes the prompt first and ends with llama-speculative's summary
+ *   (encoded / decoded totals, n_drafted / n_accept, then draft + target perf blocks)
+ * - With --prompt-cache (not -ro) it writes the prompt to that file as a stand-in session state
+ * - Writes llama-style logs + perf lines to stderr, "tokens" to stdout
+ * Behaviour is set with system properties:
+ * - fake.ttftMs      delay before the first token (default 150)
+ * - fake.tps         tokens per second (default 40)
+ * - fake.failRate    chance of a failure per run, 0..1 (default 0)
+ * - fake.failMode    exit | stall | garbage (default exit)
+ * - fake.stallMs     how long a "stall" failure hangs (default 5000)
+ * - fake.imageEncodeMs  extra delay when called with --image, like mmproj encoding (default 800)
+ */
+public class FakeLlamaBackend {
+
+    private static final String[] WORDS = {
+            "sure", "I", "think", "that", "sounds", "like", "a", "great", "idea", "for", "your",
+            "project", "and", "we", "can", "try", "it", "together", "today", "Mochi", "is", "happy",
+            "to", "help", "with", "anything", "else", "you", "need", "."
+    };
+
+    public static void main(String[] args) throws Exception {
+        long ttftMs = Long.getLong("fake.ttftMs", 150);
+        double tps = Double.parseDouble(System.getProperty("fake.tps", "40"));
+        double failRate = Double.parseDouble(System.getProperty("fake.failRate", "0"));
+        String failMode = System.getProperty("fake.failMode", "exit");
+        long stallMs = Long.getLong("fake.stallMs", 5000);
+
+        int nPredict = 128;
+        String prompt = "";
+        String image = null;
+        boolean draft = false;
+        String promptCache = null;
+        boolean cacheReadOnly = Arrays.asList(args).contains("--prompt-cache-ro");
+        for (int i = 0; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--n-predict", "-n" -> nPredict = Integer.parseInt(args[i + 1]);
+                case "-p" -> prompt = args[i + 1];
+                case "-f" -> prompt = readPrompt(args[i + 1]);
+                case "--image" -> image = args[i + 1];
+                case "--model-draft" -> draft = true;
+                case "--prompt-cache" -> promptCache = args[i + 1];
+                default -> { }
+            }
+        }
+
+        PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), true, StandardCharsets.UTF_8);
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8);
+
+        Random rnd = new Random();
+        int promptTokens = Math.max(1, prompt.length() / 4);
+
+        err.println("llama_model_loader: loaded meta data with 26 key-value pairs (fake backend)");
+        err.println("system_info: n_threads = 4 | fake");
+        if (image != null) {
+            describeImage(new File(image), err, out);
+            return;
+        }
+        Thread.sleep(ttftMs);
+        if (promptCache != null && !cacheReadOnly) {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(promptCache), StandardCharsets.UTF_8)) {
+                w.write(prompt);
+            }
+        }
+        if (draft) {
+            out.print("\n\n" + prompt);
+            out.flush();
+        }
+
+        boolean fail = rnd.nextDouble() < failRate;
+        int failAt = fail ? rnd.nextInt(Math.max(1, nPredict)) : -1;
+
+        long genStart = System.nanoTime();
+        long tokenDelayNanos = tps > 0 ? (long) (1_000_000_000L / tps) : 0;
+        int generated = 0;
+
+        for (int i = 0; i < nPredict; i++) {
+            if (i == failAt) {
+                switch (failMode) {
+                    case "stall" -> Thread.sleep(stallMs);
+                    case "garbage" -> out.print("x".repeat(1_000_000));
+                    default -> {
+                        err.println("llama_decode: failed to decode (fake failure)");
+                        out.flush();
+                        System.exit(1);
+                    }
+                }
+            }
+
+            String word = WORDS[rnd.nextInt(WORDS.length)];
+            out.print(word.equals(".") ? "." : " " + word);
+            out.flush();
+            generated++;
+
+            if (tokenDelayNanos > 0) {
+                Thread.sleep(tokenDelayNanos / 1_000_000, (int) (tokenDelayNanos % 1_000_000));
+            }
+        }
+        out.println(" [end of text]");
+
+        double genMs = (System.nanoTime() - genStart) / 1e6;
+        if (draft) {
+            printSpeculativeSummary(err, promptTokens, ttftMs, generated, genMs);
+            return;
+        }
+        err.printf("llama_perf_context_print: prompt eval time = %10.2f ms / %5d tokens (%8.2f ms per token, %8.2f tokens per second)%n",
+                (double) ttftMs, promptTokens, (double) ttftMs / promptTokens, promptTokens * 1000.0 / Math.max(1, ttftMs));
+        err.printf("llama_perf_context_print:        eval time = %10.2f ms / %5d runs   (%8.2f ms per token, %8.2f tokens per second)%n",
+                genMs, generated, genMs / Math.max(1, generated), generated * 1000.0 / Math.max(1, genMs));
+    }
+
+    // llama-speculative's end-of-run log: its own totals, then perf blocks where the target's
+    // "runs" are verification batches (several tokens each), not generated tokens
+    private static void printSpeculativeSummary(PrintStream err, int promptTokens, long ttftMs, int generated, double genMs) {
+        int drafted = generated;
+        int accepted = generated * 3 / 4;
+        int targetRuns = Math.max(1, generated - accepted);
+        err.println();
+        err.printf("encoded %4d tokens in %8.3f seconds, speed: %8.3f t/s%n",
+                promptTokens, ttftMs / 1000.0, promptTokens * 1000.0 / Math.max(1, ttftMs));
+        err.printf("decoded %4d tokens in %8.3f seconds, speed: %8.3f t/s%n",
+                generated, genMs / 1000.0, generated * 1000.0 / Math.max(1, genMs));
+        err.println();
+        err.println("n_draft   = 16");
+        err.println("n_predict = " + generated);
+        err.println("n_drafted = " + drafted);
+        err.println("n_accept  = " + accepted);
+        err.printf("accept    = %.3f%%%n", 100.0 * accepted / Math.max(1, drafted));
+        err.println();
+        err.println("draft:");
+        err.println();
+        err.printf("llama_perf_context_print:        eval time = %10.2f ms / %5d runs   (%8.2f ms per token, %8.2f tokens per second)%n",
+                genMs / 4, drafted, genMs / 4 / Math.max(1, drafted), drafted * 4000.0 / Math.max(1, genMs));
+        err.println();
+        err.println("target:");
+        err.println();
+        err.printf("llama_perf_context_print: prompt eval time = %10.2f ms / %5d tokens (%8.2f ms per token, %8.2f tokens per second)%n",
+                genMs, promptTokens + drafted, genMs / (promptTokens + drafted), (promptTokens + drafted) * 1000.0 / Math.max(1, genMs));
+        err.printf("llama_perf_context_print:        eval time = %10.2f ms / %5d runs   (%8.2f ms per token, %8.2f tokens per second)%n",
+                genMs / 2, targetRuns, genMs / 2 / targetRuns, targetRuns * 2000.0 / Math.max(1, genMs));
+    }
+
+    // stand-in for llama-mtmd-cli: "encode" the image, then describe it deterministically
+    private static void describeImage(File image, PrintStream err, PrintStream out) throws InterruptedException {
+        long encodeMs = Long.getLong("fake.imageEncodeMs", 800);
+        err.println("encoding image slice...");
+        Thread.sleep(encodeMs);
+        err.println("image slice encoded in " + encodeMs + " ms");
+        out.println("The image \"" + image.getName() + "\" is " + image.length() +
+                " bytes of fake pixels showing a happy mochi on a plate.");
+    }
+
+    private static String readPrompt(String path) throws IOException {
+        InputStream in = path.equals("/dev/stdin") ? System.in : new FileInputStream(path);
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * HeadlessServer
+ * Local HTTP API over the same chat pipeline the window uses (no AWT/Swing).
+ * Endpoints:
+ * - GET    /health
+ * - POST   /sessions                     → {"id": "..."}
+ * - GET    /sessions                     → list of session ids
+ * - GET    /sessions/{id}                → long-term memory of the session
+ * - DELETE /sessions/{id}
+ * - POST   /sessions/{id}/messages       body: {"text": "..."} or plain text → {"reply": "..."}
+ *          add ?stream=true for server-sent events (event: token ... event: done); tokens are
+ *          sanitized like the stored reply, done carries the final (tidied) reply;
+ *          bodies over 64 KB get 413 instead of being cut off
+ * - GET    /sessions/{id}/export         → compressed backup (ConversationArchive)
+ * - POST   /sessions/{id}/import         body: a backup; replaces the session's history + memory
+ * Each request runs on its own virtual thread; one session handles one message at a time.
+ * Sessions idle for -Dmochi.sessionIdleMinutes (default 60) are dropped, and at most
+ * -Dmochi.maxSessions (default 64) are kept: creating one more drops the least recently used.
+ */
+public class HeadlessServer {
+
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    // a conversation + when a request last touched it (for idle expiry / LRU eviction)
+    private static final class Session {
+        final Conversation convo;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(Conversation convo) {
+            this.convo = convo;
+        }
+    }
+
+    private final ChatEngine engine;
+    private final int port;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final int maxSessions = Math.max(1, Integer.getInteger("mochi.maxSessions", 64));
+    private final long sessionIdleMillis = Long.getLong("mochi.sessionIdleMinutes", 60) * 60_000;
+
+    private HttpServer server;
+
+    public HeadlessServer(ChatEngine engine, int port) {
+        this.engine = engine;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        // loopback only: this is a local service, not something to expose on the network
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/health", ex -> send(ex, 200, "{\"status\":\"ok\"}"));
+        server.createContext("/sessions", this::handleSessions);
+
+        MaintenanceScheduler maintenance = engine.getMaintenanceScheduler();
+        if (maintenance != null) {
+            // summaries + journal compaction for every session, between requests
+            maintenance.addJob(perSession("Memory summarization",
+                    convo -> engine.summarizationJob(convo, r -> {
+                        synchronized (convo) {
+                            r.run();
+                        }
+                    })));
+            maintenance.addJob(perSession("Journal compaction", ConversationArchive::compactionJob));
+        }
+
+        server.start();
+        System.out.println("[HEADLESS] Listening on http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    public int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    // -----------------------------
+    // Routing
+    // -----------------------------
+
+    private void handleSessions(HttpExchange ex) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            String[] parts = ex.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            // parts: ["", "sessions", id?, "messages"?]
+            expireIdleSessions();
+
+            if (parts.length == 2) {
+                if (method.equals("POST")) {
+                    makeRoomForSession();
+                    String id = UUID.randomUUID().toString();
+                    sessions.put(id, new Session(engine.newConversation()));
+                    send(ex, 201, "{\"id\":" + quote(id) + "}");
+                } else if (method.equals("GET")) {
+                    StringBuilder sb = new StringBuilder("{\"sessions\":[");
+                    String sep = "";
+                    for (String id : sessions.keySet()) {
+                        sb.append(sep).append(quote(id));
+                        sep = ",";
+                    }
+                    send(ex, 200, sb.append("]}").toString());
+                } else {
+                    send(ex, 405, error("method not allowed"));
+                }
+                return;
+            }
+
+            Session session = sessions.get(parts[2]);
+            if (session == null) {
+                send(ex, 404, error("unknown session"));
+                return;
+            }
+            session.lastUsed = System.currentTimeMillis();
+            Conversation convo = session.convo;
+
+            if (parts.length == 3) {
+                if (method.equals("GET")) {
+                    send(ex, 200, "{\"id\":" + quote(parts[2]) +
+                            ",\"memory\":" + quote(convo.getLongTermSummary()) + "}");
+                } else if (method.equals("DELETE")) {
+                    if (sessions.remove(parts[2], session)) {
+                        discard(convo);
+                    }
+                    send(ex, 204, null);
+                } else {
+                    send(ex, 405, error("method not allowed"));
+                }
+                return;
+            }
+
+            if (parts.length == 4 && parts[3].equals("messages") && method.equals("POST")) {
+                try {
+                    handleMessage(ex, convo);
+                } finally {
+                    session.lastUsed = System.currentTimeMillis();   // a long reply isn't idle time
+                }
+                return;
+            }
+
+            if (parts.length == 4 && parts[3].equals("export") && method.equals("GET")) {
+                ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                ex.sendResponseHeaders(200, 0);
+                Future<Void> export;
+                synchronized (convo) {
+                    export = ConversationArchive.export(convo, ex::getResponseBody);
+                }
+                ConversationArchive.await(export);   // streamed outside the lock
+                return;
+            }
+
+            if (parts.length == 4 && parts[3].equals("import") && method.equals("POST")) {
+                // read and checked in full first (streamed, no size limit); the session only changes after that
+                ConversationArchive.Imported imported;
+                try {
+                    imported = ConversationArchive.read(ex.getRequestBody(), true);
+                } catch (IOException bad) {
+                    send(ex, 400, error(bad.getMessage()));
+                    return;
+                }
+                synchronized (convo) {
+                    convo.replaceWith(imported.conversation());
+                }
+                ConversationArchive.ImportStats stats = imported.stats();
+                send(ex, 200, "{\"messages\":" + stats.live() + ",\"archived\":" + stats.archived() +
+                        ",\"memory\":" + stats.summary() + "}");
+                return;
+            }
+
+            send(ex, 404, error("not found"));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                send(ex, 500, error("internal error"));
+            } catch (IOException ignored) {
+                // headers were already sent (streaming), nothing more we can tell the client
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    // -----------------------------
+    // Session limits
+    // -----------------------------
+
+    private void expireIdleSessions() {
+        long cutoff = System.currentTimeMillis() - sessionIdleMillis;
+        for (Map.Entry<String, Session> e : sessions.entrySet()) {
+            if (e.getValue().lastUsed < cutoff && sessions.remove(e.getKey(), e.getValue())) {
+                System.out.println("[HEADLESS] Session " + e.getKey() + " expired after being idle.");
+                discard(e.getValue().convo);
+            }
+        }
+    }
+
+    // at the cap: drop the least recently used session(s) to make room for a new one
+    private void makeRoomForSession() {
+        while (sessions.size() >= maxSessions) {
+            Map.Entry<String, Session> oldest = null;
+            for (Map.Entry<String, Session> e : sessions.entrySet()) {
+                if (oldest == null || e.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) return;
+            if (sessions.remove(oldest.getKey(), oldest.getValue())) {
+                System.out.println("[HEADLESS] Session limit (" + maxSessions + ") reached, dropped " + oldest.getKey());
+                discard(oldest.getValue().convo);
+            }
+        }
+    }
+
+    private static void discard(Conversation convo) {
+        if (convo.getJournal() != null) {
+            convo.getJournal().discard();
+        }
+    }
+
+    /** One maintenance job that runs jobFor(session) for every session that needs it. */
+    private MaintenanceScheduler.Job perSession(String name,
+                                                Function<Conversation, MaintenanceScheduler.Job> jobFor) {
+        return new MaintenanceScheduler.Job() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public boolean isDue() {
+                for (Session session : sessions.values()) {
+                    if (jobFor.apply(session.convo).isDue()) return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void run(MaintenanceScheduler.Preemption preemption) throws Exception {
+                for (Session session : sessions.values()) {
+                    if (preemption.isPreempted()) return;
+                    MaintenanceScheduler.Job job = jobFor.apply(session.convo);
+                    if (job.isDue()) {
+                        job.run(preemption);
+                    }
+                }
+            }
+        };
+    }
+
+    // -----------------------------
+    // Messages
+    // -----------------------------
+
+    private void handleMessage(HttpExchange ex, Conversation convo) throws Exception {
+        byte[] body = readBody(ex);
+        if (body == null) {
+            send(ex, 413, error("message body over " + MAX_BODY_BYTES / 1024 + " KB"));
+            return;
+        }
+        String userText = userText(ex, body);
+        if (userText == null || userText.isBlank()) {
+            send(ex, 400, error("empty message"));
+            return;
+        }
+        userText = userText.trim();
+
+        boolean stream = "true".equalsIgnoreCase(queryParam(ex.getRequestURI().getRawQuery(), "stream"));
+
+        // a session is a single chat: one turn at a time, other sessions run in parallel
+        synchronized (convo) {
+            respond(ex, convo, userText, stream);
+            if (engine.getMaintenanceScheduler() == null) {
+                engine.maybeSummarize(convo);
+            }
+        }
+    }
+
+    private void respond(HttpExchange ex, Conversation convo, String userText, boolean stream) throws Exception {
+        if (!stream) {
+            String reply = engine.respond(convo, userText, null);
+            send(ex, 200, "{\"reply\":" + quote(reply) + "}");
+            return;
+        }
+
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        String reply = engine.respond(convo, userText, chunk -> sendEvent(out, "token", quote(chunk)));
+        sendEvent(out, "done", "{\"reply\":" + quote(reply) + "}");
+    }
+
+    // the whole request body, or null if it is over MAX_BODY_BYTES (never cut off and used as is)
+    private static byte[] readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            String length = ex.getRequestHeaders().getFirst("Content-Length");
+            try {
+                if (length != null && Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+                    return null;
+                }
+            } catch (NumberFormatException ignored) {
+                // chunked / bogus header: the read below decides
+            }
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            return body.length > MAX_BODY_BYTES ? null : body;
+        }
+    }
+
+    private static String userText(HttpExchange ex, byte[] body) {
+        String text = new String(body, StandardCharsets.UTF_8);
+
+        String type = ex.getRequestHeaders().getFirst("Content-Type");
+        if (type != null && type.contains("json")) {
+            return jsonStringField(text, "text");
+        }
+        return text;
+    }
+
+    // -----------------------------
+    // Tiny JSON / query helpers (no dependencies)
+    // -----------------------------
+
+    static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Decoded value of name in a raw query string like "a=1&stream=true", or null if absent. */
+    static String queryParam(String rawQuery, String name) {
+        if (rawQuery == null) return null;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            if (key.equals(name)) {
+                return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /** Value of a top-level string field like {"text": "..."}, or null. */
+    static String jsonStringField(String json, String field) {
+        int key = json.indexOf(quote(field));
+        if (key < 0) return null;
+        int colon = json.indexOf(':', key);
+        int start = colon < 0 ? -1 : json.indexOf('"', colon);
+        if (start < 0) return null;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = start + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\' && i + 1 < json.length()) {
+                char e = json.charAt(++i);
+                switch (e) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (i + 4 >= json.length()) return null;
+                        sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    default -> sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return null; // unterminated string
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        if (json == null) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sendEvent(OutputStream out, String event, String data) {
+        try {
+            out.write(("event: " + event + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ex) {
+            // client went away; keep generating so the conversation stays consistent
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * ImageDescriber
+ * Lets Mochi actually look at /img pictures through llama.cpp's multimodal projector (mmproj).
+ * - The model + projector encode the image once and write a detailed description
+ * - Descriptions are cached on disk keyed by the image's SHA-256, so showing the same picture
+ *   again (or asking about it later) skips the expensive image encode entirely
+ * - The description goes into the conversation as text, so follow-up questions work
+ *   with the normal text-only llama-cli prompt
+ * Enabled only when both -Dmochi.visionModel (a vision model) and -Dmochi.mmproj (its projector)
+ * are set. Works on CPU; slow the first time, instant from the cache afterwards.
+ */
+public class ImageDescriber {
+
+    private static final String DESCRIBE_PROMPT =
+            "Describe this image in detail for someone who cannot see it: the main subjects, " +
+                    "any text, colors, setting and anything unusual. Use plain sentences.";
+    private static final int DESCRIBE_TOKENS = 256;
+
+    private final LlamaClient client;
+    private final File mmproj;
+    private final File cacheDir;
+
+    private long hits;
+    private long misses;
+
+    public ImageDescriber(LlamaClient client, File mmproj, File cacheDir) {
+        this.client = client;
+        this.mmproj = mmproj;
+        // one folder per projector: another model would describe the same picture differently
+        String projector = mmproj.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        this.cacheDir = new File(cacheDir, projector);
+    }
+
+    /** Default cache location: ~/.mochi/image-cache */
+    public static File defaultCacheDir() {
+        return new File(System.getProperty("user.home"), ".mochi" + File.separator + "image-cache");
+    }
+
+    /**
+     * Description of the image, from the cache if this exact file content was seen before.
+     * Returns "" if the model produced nothing.
+     */
+    public String describe(File image) throws IOException, InterruptedException {
+        String key = sha256(image);
+        File cached = new File(cacheDir, key + ".txt");
+
+        if (cached.isFile()) {
+            synchronized (this) {
+                hits++;
+            }
+            System.out.println("[VISION] Cache hit for " + image.getName() + " (" + key.substring(0, 12) + ")");
+            return Files.readString(cached.toPath(), StandardCharsets.UTF_8);
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        long t = System.nanoTime();
+        String description = ChatEngine.sanitizeIdentity(client.describeImage(image, mmproj, DESCRIBE_PROMPT, DESCRIBE_TOKENS));
+        System.out.println("[VISION] Encoded + described " + image.getName() + " in " +
+                (System.nanoTime() - t) / 1_000_000 + " ms");
+
+        if (!description.isEmpty()) {
+            store(cached, description);
+        }
+        return description;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // write to a temp file first so a crash never leaves half a description behind
+    private void store(File target, String description) {
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            File tmp = new File(cacheDir, target.getName() + ".tmp");
+            Files.writeString(tmp.toPath(), description, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            System.out.println("[VISION] Failed to cache description: " + ex.getMessage());
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every JDK has SHA-256
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,194 @@
+package org.example;
+
+/**
+ * LatencyController
+ * Keeps replies inside a target latency (-Dmochi.targetLatencyMs) by adapting each request.
+ * - Tracks time-to-first-token, prompt speed and generation speed (moving averages per model)
+ * - Reply length: as many tokens as fit in what's left of the target after the first token
+ * - Context budget: fewer history tokens when prompt evaluation eats too much of the target
+ * - Fallback: switches to the smaller model (-Dmochi.fallbackModel) when even short replies
+ *   keep missing the target, and retries the main model every few replies
+ * Every change of plan is logged with [SLO] and can be shown in the status bar (pollAdaptation).
+ */
+public class LatencyController {
+
+    public static final int MAX_PREDICT = 128;          // the old fixed --n-predict
+    private static final int MIN_PREDICT = 24;          // shorter than this isn't a useful reply
+    private static final int MIN_HISTORY_TOKENS = 96;   // always keep roughly the last exchange
+    private static final double TTFT_SHARE = 0.4;       // part of the target the prompt may use
+    private static final double ALPHA = 0.3;            // weight of the newest sample
+    private static final double OVERLOAD_FACTOR = 1.25; // "can't make it" margin over the target
+    private static final int OVERLOAD_STREAK = 3;       // misses in a row before falling back
+    private static final int RETRY_PRIMARY_AFTER = 8;   // replies on the fallback before a retry
+    private static final int PREDICT_STEP = 16;         // report length changes of at least this
+
+    /** What the next request should do. historyTokens is Integer.MAX_VALUE when not limited. */
+    public record Plan(int nPredict, int historyTokens, boolean fallback) {
+    }
+
+    // moving averages for one model; NaN until the first sample
+    private static class ModelStats {
+        double ttftMs = Double.NaN;
+        double overheadMs = Double.NaN;        // spawn + load, the part of the TTFT that isn't the prompt
+        double promptTps = Double.NaN;
+        double genTps = Double.NaN;
+
+        boolean hasSamples() {
+            return !Double.isNaN(ttftMs) && !Double.isNaN(genTps);
+        }
+    }
+
+    private final long targetMs;
+    private final boolean fallbackAvailable;
+
+    private final ModelStats primary = new ModelStats();
+    private final ModelStats fallback = new ModelStats();
+
+    private Plan plan = new Plan(MAX_PREDICT, Integer.MAX_VALUE, false);
+    private int overloadStreak;
+    private int fallbackReplies;
+    private String pendingAdaptation;
+
+    /** targetMs <= 0 turns adaptation off (plan stays at MAX_PREDICT, full context, main model). */
+    public LatencyController(long targetMs, boolean fallbackAvailable) {
+        this.targetMs = targetMs;
+        this.fallbackAvailable = fallbackAvailable;
+    }
+
+    public boolean isEnabled() {
+        return targetMs > 0;
+    }
+
+    public synchronized Plan currentPlan() {
+        return plan;
+    }
+
+    /** Last adaptation not shown yet (for the status bar), or null. */
+    public synchronized String pollAdaptation() {
+        String s = pendingAdaptation;
+        pendingAdaptation = null;
+        return s;
+    }
+
+    // -----------------------------
+    // Samples
+    // -----------------------------
+
+    /**
+     * One finished reply.
+     * @param usedFallback   whether it ran on the fallback model
+     * @param ttftMs         request start → first streamed text
+     * @param wallMs         request start → done
+     * @param promptTokens   from llama's perf lines (0 if unknown)
+     * @param promptTps      prompt evaluation speed (0 if unknown)
+     * @param genTokens      tokens generated (llama's count, or an estimate)
+     */
+    public synchronized void record(boolean usedFallback, long ttftMs, long wallMs,
+                                    int promptTokens, double promptTps, int genTokens) {
+        if (!isEnabled() || ttftMs <= 0) return;
+
+        ModelStats s = usedFallback ? fallback : primary;
+        s.ttftMs = ewma(s.ttftMs, ttftMs);
+        if (promptTps > 0 && promptTokens > 0) {
+            s.promptTps = ewma(s.promptTps, promptTps);
+            s.overheadMs = ewma(s.overheadMs, Math.max(0, ttftMs - promptTokens * 1000.0 / promptTps));
+        }
+        long genMs = wallMs - ttftMs;
+        if (genTokens > 1 && genMs > 0) {
+            s.genTps = ewma(s.genTps, genTokens * 1000.0 / genMs);
+        }
+
+        replan(usedFallback);
+    }
+
+    private void replan(boolean usedFallback) {
+        boolean useFallback = plan.fallback();
+
+        // fallback decisions
+        if (useFallback) {
+            if (++fallbackReplies >= RETRY_PRIMARY_AFTER) {
+                useFallback = false;                 // give the main model another try, with its
+                fallbackReplies = 0;                 // last (cautious) plan; fresh samples update it
+            }
+        } else if (!usedFallback && primary.hasSamples()) {
+            if (predictedMs(primary, MIN_PREDICT) > targetMs * OVERLOAD_FACTOR) {
+                overloadStreak++;
+            } else {
+                overloadStreak = 0;
+            }
+            if (fallbackAvailable && overloadStreak >= OVERLOAD_STREAK) {
+                useFallback = true;
+                overloadStreak = 0;
+                fallbackReplies = 0;
+            }
+        }
+
+        ModelStats s = useFallback ? fallback : primary;
+        Plan next = s.hasSamples()
+                ? planFor(s, useFallback)
+                : new Plan(MAX_PREDICT, Integer.MAX_VALUE, useFallback);   // no numbers yet for this model
+
+        String note = describe(plan, next);
+        plan = next;
+        if (note != null) {
+            pendingAdaptation = note;
+            ModelStats measured = usedFallback ? fallback : primary;
+            System.out.println("[SLO] " + note + String.format(" (last model: ttft %.0f ms, %.1f tok/s; target %d ms)",
+                    measured.ttftMs, measured.genTps, targetMs));
+        }
+    }
+
+    private Plan planFor(ModelStats s, boolean useFallback) {
+        // context: if the first token takes more than its share, cut history to fit the share
+        double ttftAllowance = targetMs * TTFT_SHARE;
+        int historyTokens = Integer.MAX_VALUE;
+        double expectedTtft = s.ttftMs;
+        if (s.ttftMs > ttftAllowance && !Double.isNaN(s.promptTps) && !Double.isNaN(s.overheadMs)) {
+            double promptMs = Math.max(0, ttftAllowance - s.overheadMs);
+            historyTokens = (int) Math.max(MIN_HISTORY_TOKENS, promptMs * s.promptTps / 1000);
+            expectedTtft = Math.max(ttftAllowance, s.overheadMs);
+        }
+
+        // length: whatever fits in the rest of the target
+        int nPredict = (int) ((targetMs - expectedTtft) * s.genTps / 1000);
+        nPredict = Math.max(MIN_PREDICT, Math.min(MAX_PREDICT, nPredict));
+
+        return new Plan(nPredict, historyTokens, useFallback);
+    }
+
+    private double predictedMs(ModelStats s, int tokens) {
+        return s.ttftMs + tokens * 1000.0 / s.genTps;
+    }
+
+    /** Status line for a plan change worth telling the user about, or null. */
+    private String describe(Plan old, Plan next) {
+        if (old.fallback() != next.fallback()) {
+            return next.fallback()
+                    ? "Host is busy: using the smaller model for now."
+                    : "Trying the main model again.";
+        }
+        boolean historyChanged = old.historyTokens() != next.historyTokens()
+                && (old.historyTokens() == Integer.MAX_VALUE || next.historyTokens() == Integer.MAX_VALUE
+                || Math.abs(old.historyTokens() - next.historyTokens()) >= old.historyTokens() / 4);
+        boolean lengthChanged = Math.abs(old.nPredict() - next.nPredict()) >= PREDICT_STEP
+                || (old.nPredict() != next.nPredict() && (next.nPredict() == MAX_PREDICT || next.nPredict() == MIN_PREDICT));
+
+        if (!historyChanged && !lengthChanged) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder("Adapting to stay under ")
+                .append(String.format("%.1f", targetMs / 1000.0)).append(" s: ");
+        sb.append("replies up to ").append(next.nPredict()).append(" tokens");
+        if (next.historyTokens() == Integer.MAX_VALUE) {
+            sb.append(", full context");
+        } else {
+            sb.append(", context ~").append(next.historyTokens()).append(" tokens");
+        }
+        return sb.append('.').toString();
+    }
+
+    private static double ewma(double old, double sample) {
+        return Double.isNaN(old) ? sample : old + ALPHA * (sample - old);
+    }
+}
@@ -1,8 +1,14 @@
 package org.example;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class LlamaClient {
 
@@ -13,52 +19,570 @@ public class LlamaClient {
     private static final String MODEL_PATH =
             "C:\\\\llama\\\\models\\\\qwen2.5-0.5b-instruct-q4_k_m.gguf";
 
+    // llama.cpp's multimodal CLI (same folder as llama-cli); runs the vision projector for /img
+    private static final String MTMD_EXE = LLAMA_EXE.replace("llama-cli", "llama-mtmd-cli");
+
+    // llama.cpp's speculative-decoding example (same folder); plain llama-cli rejects the --draft-* flags
+    private static final String SPECULATIVE_EXE = LLAMA_EXE.replace("llama-cli", "llama-speculative");
+
+    // command that starts the backend; normally just llama-cli, but can be swapped
+    // (e.g. for FakeLlamaBackend when load testing without a real model)
+    private List<String> launcher = List.of(LLAMA_EXE);
+    private List<String> visionLauncher = null;   // null = llama-mtmd-cli, or the custom launcher
+
+    // === PROMPT HAND-OFF ===
+    // How the prompt gets into llama-cli:
+    // - STDIN: "-f /dev/stdin" and we write UTF-8 into the pipe (Linux/macOS, no disk I/O)
+    // - TEMP_FILE: "-f <file>" (Windows, where there is no /dev/stdin)
+    // - ARGUMENT: "-p <prompt>"; only when asked for. On Windows, Java doesn't escape embedded quotes
+    //   the way CommandLineToArgvW expects, so prompts with '"' (or huge ones) still go via TEMP_FILE there
+    public enum PromptTransport {
+        STDIN,
+        ARGUMENT,
+        TEMP_FILE
+    }
+
+    // Windows CreateProcess command lines are capped at 32767 chars; stay well below that
+    private static final int MAX_ARGUMENT_PROMPT_CHARS = 24_000;
+
+    private static final boolean IS_WINDOWS =
+            System.getProperty("os.name", "").toLowerCase().contains("win");
+
+    private PromptTransport transport = IS_WINDOWS ? PromptTransport.TEMP_FILE : PromptTransport.STDIN;
+
+    // === OUTPUT LIMITS ===
+    // A runaway backend must not balloon the heap: completion text and single log lines are capped,
+    // anything beyond is drained and dropped.
+    // Hitting either cap on stdout means the backend went off the rails: the run fails.
+    private static final int MAX_OUTPUT_CHARS = 64 * 1024;
+    private static final int MAX_LINE_CHARS = 4 * 1024;
+    private static final int ERROR_TAIL_LINES = 6;   // stderr lines quoted when a run fails
+
+    // processes killed on purpose (prefill / maintenance yielding to the user): exit code is no error
+    private static final Set<Process> CANCELLED = ConcurrentHashMap.newKeySet();
+
+    private BackendLog backendLog = BackendLog.getDefault();
+
+    // target model actually used (defaults to MODEL_PATH, can point to a bigger model when drafting)
+    private String modelPath = MODEL_PATH;
+
+    // === SPECULATIVE DECODING (optional) ===
+    // When a draft model is set, the small model proposes tokens and MODEL_PATH verifies them.
+    // This runs llama-speculative instead of llama-cli: it has no -no-cnv / --no-display-prompt /
+    // --prompt-cache and echoes the prompt to stdout, which we skip before handing text on.
+    private String draftModelPath = null;
+    private int draftMax = 16;       // max tokens drafted per step
+    private int draftMin = 0;        // min tokens drafted per step
+    private double draftPMin = 0.75; // min draft probability to keep drafting
+
+    private volatile CompletionStats lastStats = new CompletionStats();
+
+    // === CPU PARTITIONING ===
+    // threads: llama's -t (0 = let llama decide, i.e. grab every core)
+    // cpuAffinity: taskset-style cpu list like "0-3" so parallel workers don't fight over cores (Linux only)
+    private int threads = 0;
+    private String cpuAffinity = null;
+
+    // === PERFORMANCE SETTINGS (see BackendProfile / AutoTuner) ===
+    private int ctxSize = 900;
+    private int batchSize = 0;      // 0 = llama default
+    private boolean mmap = true;
+    private boolean mlock = false;
+
+    private static final boolean IS_LINUX =
+            System.getProperty("os.name", "").toLowerCase().contains("linux");
+
+    // -----------------------------
+    // Config
+    // -----------------------------
+
+    /**
+     * Kill a llama process on purpose. The run it belongs to returns whatever it had instead of
+     * failing with the non-zero exit code.
+     */
+    public static void cancel(Process process) {
+        if (process.isAlive()) {
+            CANCELLED.add(process);
+        }
+        process.destroyForcibly();
+    }
+
+    /** Replace the llama-cli executable with another command (e.g. "java", "-cp", ..., "org.example.FakeLlamaBackend"). */
+    public void setLauncher(List<String> launcher) {
+        this.launcher = (launcher == null || launcher.isEmpty()) ? List.of(LLAMA_EXE) : List.copyOf(launcher);
+    }
+
+    /** Replace llama-mtmd-cli (used by describeImage) with another command. */
+    public void setVisionLauncher(List<String> launcher) {
+        this.visionLauncher = (launcher == null || launcher.isEmpty()) ? null : List.copyOf(launcher);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(0, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Use tuned -t / -b / --ctx-size / mmap / mlock settings (LlamaPool may still override threads). */
+    public void applyProfile(BackendProfile profile) {
+        if (profile == null) return;
+        threads = profile.threads;
+        batchSize = profile.batchSize;
+        ctxSize = profile.ctxSize;
+        mmap = profile.mmap;
+        mlock = profile.mlock;
+    }
+
+    public void setCpuAffinity(String cpuList) {
+        this.cpuAffinity = (cpuList == null || cpuList.isBlank()) ? null : cpuList;
+    }
+
+    public String getCpuAffinity() {
+        return cpuAffinity;
+    }
+
+    public void setBackendLog(BackendLog backendLog) {
+        this.backendLog = backendLog;
+    }
+
+    public void setPromptTransport(PromptTransport transport) {
+        this.transport = transport;
+    }
+
+    public void setModel(String path) {
+        this.modelPath = (path == null || path.isBlank()) ? MODEL_PATH : path;
+    }
+
+    public void setDraftModel(String path) {
+        this.draftModelPath = (path == null || path.isBlank()) ? null : path;
+    }
+
+    public void setDraftLimits(int min, int max, double pMin) {
+        this.draftMin = Math.max(0, min);
+        this.draftMax = Math.max(this.draftMin, max);
+        this.draftPMin = pMin;
+    }
+
+    public boolean isSpeculative() {
+        return draftModelPath != null;
+    }
+
+    /** Stats of the most recent complete() call (acceptance rate, tokens/sec, ...). */
+    public CompletionStats getLastStats() {
+        return lastStats;
+    }
+
     public String complete(String prompt) throws IOException, InterruptedException {
-        // write prompt to temp file
-        File tempPrompt = File.createTempFile("llama_prompt_", ".txt");
-        try (FileWriter fw = new FileWriter(tempPrompt)) {
-            fw.write(prompt);
+        return complete(prompt, 128);
+    }
+
+    public String complete(String prompt, int nPredict) throws IOException, InterruptedException {
+        return complete(prompt, nPredict, null);
+    }
+
+    /**
+     * Same as complete(prompt, nPredict), but raw stdout text is also handed to onText
+     * as soon as llama-cli prints it (token streaming). onText may be null.
+     */
+    public String complete(String prompt, int nPredict, Consumer<String> onText)
+            throws IOException, InterruptedException {
+        return run(prompt, nPredict, onText, CacheOptions.NONE);
+    }
+
+    /**
+     * Same as complete(prompt, nPredict, onText), but reuses a llama --prompt-cache file (read-only)
+     * written by prefill(); only the part of the prompt after the cached prefix gets evaluated.
+     */
+    public String complete(String prompt, int nPredict, Consumer<String> onText, File promptCache)
+            throws IOException, InterruptedException {
+        if (promptCache == null || !promptCache.isFile()) {
+            return complete(prompt, nPredict, onText);
         }
+        return run(prompt, nPredict, onText, new CacheOptions(promptCache, true, null));
+    }
 
+    /**
+     * Background work that must yield to the user (e.g. summarization): onStart gets the process
+     * so the caller can kill it when a real request comes in.
+     */
+    public String completeCancellable(String prompt, int nPredict, Consumer<Process> onStart)
+            throws IOException, InterruptedException {
+        return run(prompt, nPredict, null, new CacheOptions(null, true, onStart));
+    }
+
+    /**
+     * Evaluate a prompt prefix and save llama's state to promptCache. Generates (and drops) one token:
+     * with --n-predict 0 llama-cli exits before evaluating the prompt and never writes the cache.
+     * onStart gets the process so the caller can kill it (prefill must always yield to real work).
+     */
+    public void prefill(String prefix, File promptCache, Consumer<Process> onStart)
+            throws IOException, InterruptedException {
+        run(prefix, 1, null, new CacheOptions(promptCache, false, onStart));
+    }
+
+    /**
+     * Run a multimodal model on one image (llama-mtmd-cli with --mmproj / --image) and return its answer.
+     * This is the expensive part of vision: the projector has to encode the whole image first.
+     */
+    public String describeImage(File image, File mmproj, String prompt, int nPredict)
+            throws IOException, InterruptedException {
         List<String> command = new ArrayList<>();
-        command.add(LLAMA_EXE);
+        addAffinity(command);
+        command.addAll(visionLauncher != null ? visionLauncher
+                : launcher.equals(List.of(LLAMA_EXE)) ? List.of(MTMD_EXE) : launcher);
         command.add("-m");
-        command.add(MODEL_PATH);
-        command.add("-no-cnv");
-        command.add("--no-display-prompt");
+        command.add(modelPath);
+        command.add("--mmproj");
+        command.add(mmproj.getAbsolutePath());
+        command.add("--image");
+        command.add(image.getAbsolutePath());
         command.add("--ctx-size");
-        command.add("900");
+        command.add(String.valueOf(Math.max(ctxSize, 4096)));   // image tokens alone can take ~1-3k
         command.add("--n-predict");
-        command.add("128");
+        command.add(String.valueOf(nPredict));
+        command.add("--temp");
+        command.add("0.2");
+        addPerformanceFlags(command);
+
+        return withPrompt(prompt, (mode, tempPrompt) -> {
+            addPrompt(command, mode, prompt, tempPrompt);
+            return execute(command, prompt, mode, null, null, null);
+        });
+    }
+
+    // prompt cache file + whether we may overwrite it + hook that sees the started process
+    private record CacheOptions(File file, boolean readOnly, Consumer<Process> onStart) {
+        static final CacheOptions NONE = new CacheOptions(null, true, null);
+    }
+
+    private String run(String prompt, int nPredict, Consumer<String> onText, CacheOptions cache)
+            throws IOException, InterruptedException {
+        return withPrompt(prompt, (mode, tempPrompt) -> runLlama(prompt, nPredict, mode, tempPrompt, onText, cache));
+    }
+
+    // body of a run once the prompt transport is settled; tempPrompt is only set for TEMP_FILE
+    private interface PromptRun {
+        String run(PromptTransport mode, File tempPrompt) throws IOException, InterruptedException;
+    }
+
+    /** Pick the transport for this prompt, write the temp file if needed and clean it up afterwards. */
+    private String withPrompt(String prompt, PromptRun body) throws IOException, InterruptedException {
+        PromptTransport mode = transport;
+        if (mode == PromptTransport.ARGUMENT
+                && (prompt.length() > MAX_ARGUMENT_PROMPT_CHARS || (IS_WINDOWS && prompt.indexOf('"') >= 0))) {
+            mode = PromptTransport.TEMP_FILE;
+        }
+
+        File tempPrompt = null;
+        try {
+            if (mode == PromptTransport.TEMP_FILE) {
+                tempPrompt = File.createTempFile("llama_prompt_", ".txt");
+                Files.writeString(tempPrompt.toPath(), prompt, StandardCharsets.UTF_8);
+            }
+            return body.run(mode, tempPrompt);
+        } finally {
+            if (tempPrompt != null) {
+                tempPrompt.delete();
+            }
+        }
+    }
+
+    private String runLlama(String prompt, int nPredict, PromptTransport mode, File tempPrompt,
+                            Consumer<String> onText, CacheOptions cache)
+            throws IOException, InterruptedException {
+        boolean speculative = draftModelPath != null;
+        List<String> command = new ArrayList<>();
+        addAffinity(command);
+        command.addAll(speculative && launcher.equals(List.of(LLAMA_EXE)) ? List.of(SPECULATIVE_EXE) : launcher);
+        command.add("-m");
+        command.add(modelPath);
+        if (!speculative) {
+            command.add("-no-cnv");
+            command.add("--no-display-prompt");
+        }
+        command.add("--ctx-size");
+        command.add(String.valueOf(ctxSize));
+        command.add("--n-predict");
+        command.add(String.valueOf(nPredict));
         command.add("--temp");
         command.add("0.7");
-        command.add("-f");
-        command.add(tempPrompt.getAbsolutePath());
+        addPerformanceFlags(command);
+        if (speculative) {
+            command.add("--model-draft");
+            command.add(draftModelPath);
+            command.add("--draft-max");
+            command.add(String.valueOf(draftMax));
+            command.add("--draft-min");
+            command.add(String.valueOf(draftMin));
+            command.add("--draft-p-min");
+            command.add(String.valueOf(draftPMin));
+        } else if (cache.file() != null) {
+            command.add("--prompt-cache");
+            command.add(cache.file().getAbsolutePath());
+            if (cache.readOnly()) {
+                command.add("--prompt-cache-ro");
+            }
+        }
+        addPrompt(command, mode, prompt, tempPrompt);
 
-        System.out.println("[DEBUG] Running command:");
-        System.out.println(String.join(" ", command));
+        return execute(command, prompt, mode, onText, cache.onStart(), speculative ? new EchoSkipper(prompt) : null);
+    }
+
+    private static void addPrompt(List<String> command, PromptTransport mode, String prompt, File tempPrompt) {
+        switch (mode) {
+            case STDIN -> {
+                command.add("-f");
+                command.add("/dev/stdin");
+            }
+            case ARGUMENT -> {
+                command.add("-p");
+                command.add(prompt);
+            }
+            case TEMP_FILE -> {
+                command.add("-f");
+                command.add(tempPrompt.getAbsolutePath());
+            }
+        }
+    }
+
+    private void addAffinity(List<String> command) {
+        if (cpuAffinity != null && IS_LINUX) {
+            command.add("taskset");
+            command.add("-c");
+            command.add(cpuAffinity);
+        }
+    }
+
+    private void addPerformanceFlags(List<String> command) {
+        if (threads > 0) {
+            command.add("-t");
+            command.add(String.valueOf(threads));
+        }
+        if (batchSize > 0) {
+            command.add("-b");
+            command.add(String.valueOf(batchSize));
+        }
+        if (!mmap) {
+            command.add("--no-mmap");
+        }
+        if (mlock) {
+            command.add("--mlock");
+        }
+    }
+
+    /**
+     * Start the command, feed it the prompt (STDIN mode), drain its output and return the cleaned completion.
+     * echo (may be null) sees every raw stdout chunk first and drops a prompt echo.
+     */
+    private String execute(List<String> command, String prompt, PromptTransport mode,
+                           Consumer<String> onText, Consumer<Process> onStart, EchoSkipper echo)
+            throws IOException, InterruptedException {
+        backendLog.append("[DEBUG] Running command (" + mode + " prompt, " + prompt.length() + " chars): " +
+                String.join(" ", mode == PromptTransport.ARGUMENT
+                        ? command.subList(0, command.size() - 1) : command));
+
+        long startNanos = System.nanoTime();
+        CompletionStats stats = new CompletionStats();
 
         ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
         Process process = pb.start();
+        if (onStart != null) {
+            onStart.accept(process);
+        }
+
+        if (mode == PromptTransport.STDIN) {
+            // write on a separate thread so a chatty llama can't deadlock us on full pipes
+            Thread.ofVirtual().name("llama-stdin").start(() -> {
+                try (OutputStream stdin = process.getOutputStream()) {
+                    stdin.write(prompt.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    backendLog.append("[DEBUG] Failed to write prompt to llama-cli: " + ex.getMessage());
+                }
+            });
+        } else {
+            process.getOutputStream().close();
+        }
 
+        // stderr = llama's logs + perf numbers → log file, drained next to stdout so neither pipe fills up
+        ArrayDeque<String> errorTail = new ArrayDeque<>();
+        Thread stderrDrain = Thread.ofVirtual().name("llama-stderr").start(() ->
+                drainLines(process.getErrorStream(), null, null, line -> {
+                    stats.parseLine(line);
+                    backendLog.append(line);
+                    if (errorTail.size() == ERROR_TAIL_LINES) {
+                        errorTail.removeFirst();
+                    }
+                    errorTail.addLast(line);
+                }));
+
+        // stdout = the completion itself
         StringBuilder raw = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                raw.append(line).append(System.lineSeparator());
+        long[] dropped = {0};
+        dropped[0] += drainLines(process.getInputStream(), echo, onText, line -> {
+            if (raw.length() + line.length() < MAX_OUTPUT_CHARS) {
+                raw.append(line).append('\n');
+            } else {
+                dropped[0] += line.length();
             }
-        }
+        });
 
         int exitCode = process.waitFor();
-        System.out.println("[DEBUG] llama-cli finished with code " + exitCode);
-
-        tempPrompt.delete();
+        stderrDrain.join();
+        boolean cancelled = CANCELLED.remove(process);
+        stats.setWallMillis((System.nanoTime() - startNanos) / 1_000_000);
+        lastStats = stats;
+        backendLog.append("[DEBUG] llama-cli finished with code " + exitCode + (cancelled ? " (cancelled)" : ""));
+        // every run (prefill and warm-up too) goes to the log; ChatEngine prints replies with -Dmochi.stats=true
+        backendLog.append("[STATS] " + stats);
+        backendLog.flush();
 
+        if (!cancelled) {
+            if (exitCode != 0) {
+                throw new IOException("llama-cli exited with code " + exitCode + ": " + String.join(" | ", errorTail));
+            }
+            if (dropped[0] > 0) {
+                throw new IOException("llama-cli produced runaway output, " + dropped[0] + " chars over the caps dropped");
+            }
+        }
         return cleanOutput(raw.toString());
     }
 
+    /**
+     * Reads a stream line by line without ever holding more than MAX_LINE_CHARS of one line.
+     * Raw chunks go through echo (if set) and then also to onChunk (if set) as they arrive.
+     * Returns how many chars were cut off over-long lines.
+     */
+    private long drainLines(InputStream in, EchoSkipper echo,
+                                   Consumer<String> onChunk, Consumer<String> sink) {
+        long truncated = 0;
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] buf = new char[8192];
+            StringBuilder line = new StringBuilder();
+            int n;
+            while ((n = reader.read(buf)) != -1) {
+                String chunk = new String(buf, 0, n);
+                truncated += feed(echo == null ? chunk : echo.apply(chunk), onChunk, sink, line);
+            }
+            if (echo != null) {
+                truncated += feed(echo.finish(), onChunk, sink, line);
+            }
+            if (!line.isEmpty()) {
+                sink.accept(line.toString());
+            }
+        } catch (IOException ex) {
+            backendLog.append("[DEBUG] Stream closed early: " + ex.getMessage());
+        }
+        return truncated;
+    }
+
+    private static long feed(String chunk, Consumer<String> onChunk, Consumer<String> sink, StringBuilder line) {
+        if (chunk.isEmpty()) return 0;
+        if (onChunk != null) {
+            onChunk.accept(chunk);
+        }
+        long truncated = 0;
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (c == '\n') {
+                sink.accept(line.toString());
+                line.setLength(0);
+            } else if (c != '\r') {
+                if (line.length() < MAX_LINE_CHARS) {
+                    line.append(c);
+                } else {
+                    truncated++;
+                }
+            }
+        }
+        return truncated;
+    }
+
+    /**
+     * llama-speculative prints the whole prompt (special tokens included) before the reply.
+     * Swallows stdout until the prompt's last characters have gone by; if they never show up,
+     * everything is passed through rather than hiding a reply.
+     */
+    private static final class EchoSkipper {
+        private final String tail;
+        private final int limit;
+        private StringBuilder seen = new StringBuilder();
+
+        EchoSkipper(String prompt) {
+            String p = prompt.strip();
+            this.tail = p.substring(Math.max(0, p.length() - 64));
+            this.limit = prompt.length() + 1024;   // room for a printed BOS and the like
+        }
+
+        String apply(String chunk) {
+            if (seen == null) {
+                return chunk;
+            }
+            seen.append(chunk);
+            int at = seen.indexOf(tail);
+            if (at >= 0) {
+                String rest = seen.substring(at + tail.length());
+                seen = null;
+                return rest;
+            }
+            if (seen.length() > limit) {
+                String all = seen.toString();
+                seen = null;
+                return all;
+            }
+            return "";
+        }
+
+        /** End of stream: whatever is still held back (the prompt tail never showed up). */
+        String finish() {
+            String all = seen == null ? "" : seen.toString();
+            seen = null;
+            return all;
+        }
+    }
+
+    // -----------------------------
+    // Startup warm-up
+    // -----------------------------
+
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    /** Quick sanity check that llama-cli and the model exist before we try to run them. */
+    public boolean isBackendAvailable() {
+        if (!launcher.equals(List.of(LLAMA_EXE))) {
+            return true; // custom launcher (fake backend), nothing to check on disk
+        }
+        return new File(LLAMA_EXE).isFile() && new File(modelPath).isFile();
+    }
+
+    /**
+     * Read the model file once so the OS has it in the page cache;
+     * llama.cpp mmaps it, so the next spawn doesn't hit the disk.
+     */
+    public long pageInModel() throws IOException {
+        if (!new File(modelPath).isFile()) {
+            return 0;
+        }
+
+        long total = 0;
+        byte[] buf = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(modelPath)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /** Run a tiny prompt that only generates one token, so spawn + load + first eval are paid up front. */
+    public void warmUp() throws IOException, InterruptedException {
+        complete("Hi", 1);
+    }
+
     private String cleanOutput(String rawText) {
         String out = rawText.replace("\r", "").trim();
         if (out.isEmpty()) return "";
@@ -82,6 +606,11 @@ public class LlamaClient {
                     t.startsWith("generate:") ||
                     t.startsWith("main:") ||
                     t.startsWith("ggml_") ||
+                    t.startsWith("n_draft") ||
+                    t.startsWith("n_predict") ||
+                    t.startsWith("n_accept") ||
+                    t.startsWith("accept ") ||
+                    t.startsWith("draft acceptance") ||
                     t.startsWith("IMPORTANT:")) {
                 continue;
             }
@@ -91,7 +620,10 @@ public class LlamaClient {
         String result = cleaned.toString().trim();
 
         // 🔹 Strip model end markers like [end of text]
-        result = result.replace("[end of text]", "").trim();
+        result = result.replace("[end of text]", "")
+                .replace("<|im_end|>", "")
+                .replace("<|eot_id|>", "")
+                .trim();
 
         return result;
     }
@@ -0,0 +1,293 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * LlamaPool
+ * N LlamaClient workers that can run side by side.
+ * - Each worker has its own thread count and (optionally) its own CPU set
+ * - Requests go to the least-loaded worker (fewest requests in flight); picking and reserving
+ *   the worker is one atomic step, so concurrent requests don't all pile onto the same one
+ * - A worker runs one llama process at a time; further requests for it wait their turn (FIFO)
+ * So an interactive reply and a background summary don't thrash the same cores.
+ */
+public class LlamaPool {
+
+    private final List<LlamaClient> workers;
+    private final AtomicInteger[] inFlight;      // running + waiting, per worker
+    private final Semaphore[] slots;             // one llama process per worker
+    private final Object routingLock = new Object();
+
+    private final AtomicLong generatedTokens = new AtomicLong();
+
+    public LlamaPool(List<LlamaClient> workers) {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("LlamaPool needs at least one worker");
+        }
+        this.workers = new ArrayList<>(workers);
+        this.inFlight = new AtomicInteger[workers.size()];
+        this.slots = new Semaphore[workers.size()];
+        for (int i = 0; i < inFlight.length; i++) {
+            inFlight[i] = new AtomicInteger();
+            slots[i] = new Semaphore(1, true);
+        }
+    }
+
+    /** Pool with a single worker (the old one-client behaviour). */
+    public static LlamaPool single(LlamaClient client) {
+        return new LlamaPool(List.of(client));
+    }
+
+    /**
+     * Split the cores this process may use evenly across workerCount workers.
+     * With pinCpus each worker is also pinned to its own slice of the allowed CPUs via taskset
+     * (the allowed set isn't always 0..n-1, e.g. when Mochi itself runs under taskset or in a container).
+     */
+    public static LlamaPool partitioned(Supplier<LlamaClient> factory, int workerCount, boolean pinCpus) {
+        List<Integer> allowed = allowedCpus();
+        int cores = Math.max(1, Math.min(allowed.size(), Runtime.getRuntime().availableProcessors()));
+        int count = Math.max(1, Math.min(workerCount, cores));
+        int perWorker = Math.max(1, cores / count);
+
+        List<LlamaClient> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LlamaClient client = factory.get();
+            client.setThreads(perWorker);
+            if (pinCpus) {
+                int first = Math.min(i * perWorker, allowed.size() - 1);
+                int end = Math.min(first + perWorker, allowed.size());
+                client.setCpuAffinity(cpuList(allowed.subList(first, end)));
+            }
+            list.add(client);
+        }
+
+        System.out.println("[POOL] " + count + " worker(s), " + perWorker + " thread(s) each" +
+                (pinCpus ? ", pinned" : ""));
+        return new LlamaPool(list);
+    }
+
+    /** CPUs this process may run on (Linux: Cpus_allowed_list), or 0..n-1 if that can't be read. */
+    static List<Integer> allowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    List<Integer> cpus = new ArrayList<>();
+                    for (String part : line.substring(line.indexOf(':') + 1).trim().split(",")) {
+                        int dash = part.indexOf('-');
+                        int from = Integer.parseInt(dash < 0 ? part.trim() : part.substring(0, dash).trim());
+                        int to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1).trim());
+                        for (int cpu = from; cpu <= to; cpu++) {
+                            cpus.add(cpu);
+                        }
+                    }
+                    if (!cpus.isEmpty()) return cpus;
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // not Linux (or an odd format): fall through
+        }
+        List<Integer> cpus = new ArrayList<>();
+        for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+            cpus.add(cpu);
+        }
+        return cpus;
+    }
+
+    // taskset-style list: [0,1,2,3,8,9] -> "0-3,8-9"
+    static String cpuList(List<Integer> cpus) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cpus.size(); i++) {
+            int from = cpus.get(i);
+            int to = from;
+            while (i + 1 < cpus.size() && cpus.get(i + 1) == to + 1) {
+                to = cpus.get(++i);
+            }
+            if (!sb.isEmpty()) sb.append(',');
+            sb.append(from == to ? String.valueOf(from) : from + "-" + to);
+        }
+        return sb.toString();
+    }
+
+    // -----------------------------
+    // Routing
+    // -----------------------------
+
+    public String complete(String prompt) throws IOException, InterruptedException {
+        return complete(prompt, 128, null);
+    }
+
+    public String complete(String prompt, int nPredict, Consumer<String> onText)
+            throws IOException, InterruptedException {
+        return complete(prompt, nPredict, onText, null);
+    }
+
+    /** Like complete(prompt, nPredict, onText) but reusing a prefill() prompt cache. */
+    public String complete(String prompt, int nPredict, Consumer<String> onText, File promptCache)
+            throws IOException, InterruptedException {
+        return completeWithStats(prompt, nPredict, onText, promptCache).text();
+    }
+
+    /** A finished request: its text and the stats of exactly that llama run. */
+    public record Completion(String text, CompletionStats stats) {
+    }
+
+    /**
+     * Like complete(prompt, nPredict, onText, promptCache), plus this request's own stats
+     * (other workers finishing meanwhile can't mix theirs in).
+     */
+    public Completion completeWithStats(String prompt, int nPredict, Consumer<String> onText, File promptCache)
+            throws IOException, InterruptedException {
+        return withWorker(worker -> {
+            String out = worker.complete(prompt, nPredict, onText, promptCache);
+            // still holding this worker's slot: its last stats are this run's
+            CompletionStats stats = worker.getLastStats();
+            generatedTokens.addAndGet(stats.getGeneratedTokens());
+            return new Completion(out, stats);
+        });
+    }
+
+    /** Like complete(prompt), but onStart gets the llama process so background work can be killed. */
+    public String completeCancellable(String prompt, int nPredict, Consumer<Process> onStart)
+            throws IOException, InterruptedException {
+        return withWorker(worker -> worker.completeCancellable(prompt, nPredict, onStart));
+    }
+
+    interface WorkerCall<T> {
+        T run(LlamaClient worker) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Background work that must never make a real request wait (e.g. prefill): runs call on the
+     * primary worker only if the whole pool is idle right now, otherwise returns false at once.
+     * While it runs it counts in getInFlight() like any request.
+     */
+    public boolean runIfIdle(WorkerCall<?> call) throws IOException, InterruptedException {
+        synchronized (routingLock) {
+            if (getInFlight() > 0 || !slots[0].tryAcquire()) {
+                return false;
+            }
+            inFlight[0].incrementAndGet();
+        }
+        try {
+            call.run(workers.get(0));
+            return true;
+        } finally {
+            slots[0].release();
+            inFlight[0].decrementAndGet();
+        }
+    }
+
+    /**
+     * Run call once on every worker (e.g. warm-up), side by side, each through its worker's slot
+     * like any request: it counts in getInFlight() and a request for that worker waits its turn.
+     * Returns when all are done; the first failure is rethrown.
+     */
+    public void onEveryWorker(WorkerCall<?> call) throws IOException, InterruptedException {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            int idx = i;
+            synchronized (routingLock) {
+                inFlight[idx].incrementAndGet();
+            }
+            threads.add(Thread.ofVirtual().name("mochi-pool-" + idx).start(() -> {
+                try {
+                    runOn(idx, call);
+                } catch (IOException | InterruptedException | RuntimeException ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Exception ex = failure.get();
+        if (ex instanceof IOException io) throw io;
+        if (ex instanceof InterruptedException ie) throw ie;
+        if (ex instanceof RuntimeException re) throw re;
+    }
+
+    // reserve the least-loaded worker (atomically), wait for its slot, run, release
+    private <T> T withWorker(WorkerCall<T> call) throws IOException, InterruptedException {
+        int idx;
+        synchronized (routingLock) {
+            idx = leastLoaded();
+            inFlight[idx].incrementAndGet();
+        }
+        return runOn(idx, call);
+    }
+
+    // idx is already counted in inFlight; waits for its slot, runs, releases both
+    private <T> T runOn(int idx, WorkerCall<T> call) throws IOException, InterruptedException {
+        try {
+            slots[idx].acquire();
+            try {
+                return call.run(workers.get(idx));
+            } finally {
+                slots[idx].release();
+            }
+        } finally {
+            inFlight[idx].decrementAndGet();
+        }
+    }
+
+    private int leastLoaded() {
+        int best = 0;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < inFlight.length; i++) {
+            int load = inFlight[i].get();
+            if (load < bestLoad) {
+                best = i;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    // -----------------------------
+    // Info
+    // -----------------------------
+
+    /** First worker; used for things that only need doing once (warm-up, model checks). */
+    public LlamaClient getPrimary() {
+        return workers.get(0);
+    }
+
+    public List<LlamaClient> getWorkers() {
+        return Collections.unmodifiableList(workers);
+    }
+
+    public int size() {
+        return workers.size();
+    }
+
+    /** Requests currently running or waiting for a worker, across all workers. */
+    public int getInFlight() {
+        int total = 0;
+        for (AtomicInteger n : inFlight) {
+            total += n.get();
+        }
+        return total;
+    }
+
+    public boolean isSpeculative() {
+        return getPrimary().isSpeculative();
+    }
+
+    /** Tokens generated by all workers since the pool was created. */
+    public long getGeneratedTokens() {
+        return generatedTokens.get();
+    }
+}
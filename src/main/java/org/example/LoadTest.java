@@ -0,0 +1,182 @@
+package org.example;
+
+import javax.swing.SwingUtilities;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadTest
+ * Replays recorded conversations through Conversation + ChatEngine against FakeLlamaBackend
+ * (or the real llama-cli) and prints latency / throughput / heap numbers.
+ * Run:
+ *   java -cp target/classes -Djava.awt.headless=true org.example.LoadTest
+ * Settings (system properties):
+ * - loadtest.file      recorded conversations: one user message per line,
+ *                      blank line between conversations, # for comments (default: built-in sample)
+ * - loadtest.users     concurrent simulated users (default 4)
+ * - loadtest.repeat    how often each user replays the whole file (default 1)
+ * - loadtest.workers   backend workers in the LlamaPool (default 1)
+ * - loadtest.real      true = use the real llama-cli instead of the fake backend
+ * - loadtest.ui        true = also push every message through ChatWindow's bubble code
+ * - fake.*             passed on to FakeLlamaBackend (fake.tps, fake.ttftMs, fake.failRate, ...)
+ */
+public class LoadTest {
+
+    // no canned-intent prompts here: those never reach the backend and would flatter the latency numbers
+    private static final String[][] SAMPLE = {
+            {"hi!", "I'm working on a java chat app", "how do I make swing faster?", "thanks, what about threads?"},
+            {"good morning", "can you help me plan a trip to japan", "I like food and temples", "how many days?"},
+            {"tell me a joke", "another one", "explain recursion simply", "and tail recursion?", "ok bye"}
+    };
+
+    static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("loadtest.users", 4);
+        int repeat = Integer.getInteger("loadtest.repeat", 1);
+        int workers = Integer.getInteger("loadtest.workers", 1);
+        boolean ui = Boolean.getBoolean("loadtest.ui");
+
+        List<List<String>> conversations = loadConversations(System.getProperty("loadtest.file"));
+
+        LlamaPool pool = LlamaPool.partitioned(LoadTest::newClient, workers, false);
+        // TTL of 1 ms effectively disables the prompt cache, so every turn reaches the backend
+        ChatEngine engine = new ChatEngine(pool, new ResponseCache(1, 1, null));
+
+        ChatWindow window = null;
+        if (ui) {
+            window = new ChatWindow(new Conversation(), engine);
+        }
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong peakHeap = new AtomicLong();
+
+        System.out.println("[LOADTEST] " + users + " user(s), " + conversations.size() + " conversation(s) x" +
+                repeat + ", " + pool.size() + " worker(s)" + (ui ? ", with UI pipeline" : ""));
+
+        CountDownLatch done = new CountDownLatch(users);
+        long startNanos = System.nanoTime();
+        final ChatWindow uiWindow = window;
+
+        for (int u = 0; u < users; u++) {
+            Thread.ofVirtual().name("loadtest-user-" + u).start(() -> {
+                try {
+                    for (int r = 0; r < repeat; r++) {
+                        for (List<String> convoLines : conversations) {
+                            Conversation convo = engine.newConversation();
+                            for (String userText : convoLines) {
+                                long t = System.nanoTime();
+                                try {
+                                    String reply = engine.respond(convo, userText, null);
+                                    latencies.add((System.nanoTime() - t) / 1_000_000);
+                                    if (uiWindow != null) {
+                                        SwingUtilities.invokeAndWait(() -> {
+                                            uiWindow.appendForReplay("You", userText, true);
+                                            uiWindow.appendForReplay(ChatEngine.BOT_NAME, reply, false);
+                                        });
+                                    }
+                                } catch (Exception ex) {
+                                    errors.incrementAndGet();
+                                    System.out.println("[LOADTEST] turn failed: " + ex.getMessage());
+                                }
+                                sampleHeap(peakHeap);
+                            }
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        report(latencies, errors.get(), pool.getGeneratedTokens(), seconds, peakHeap.get());
+        System.exit(0);
+    }
+
+    private static LlamaClient newClient() {
+        LlamaClient client = new LlamaClient();
+        if (Boolean.getBoolean("loadtest.real")) {
+            return client;
+        }
+
+        List<String> launcher = new ArrayList<>();
+        launcher.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        launcher.add("-cp");
+        launcher.add(System.getProperty("java.class.path"));
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("fake.")) {
+                launcher.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        launcher.add(FakeLlamaBackend.class.getName());
+        client.setLauncher(launcher);
+        return client;
+    }
+
+    private static List<List<String>> loadConversations(String path) throws IOException {
+        List<List<String>> result = new ArrayList<>();
+        if (path == null) {
+            for (String[] convo : SAMPLE) {
+                result.add(List.of(convo));
+            }
+            return result;
+        }
+
+        // streamed line by line so big recordings don't need to fit in memory twice
+        List<String> current = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(new File(path).toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String t = line.trim();
+                if (t.startsWith("#")) continue;
+                if (t.isEmpty()) {
+                    if (!current.isEmpty()) {
+                        result.add(current);
+                        current = new ArrayList<>();
+                    }
+                    continue;
+                }
+                current.add(t);
+            }
+        }
+        if (!current.isEmpty()) {
+            result.add(current);
+        }
+        return result;
+    }
+
+    private static void sampleHeap(AtomicLong peak) {
+        Runtime rt = Runtime.getRuntime();
+        long used = rt.totalMemory() - rt.freeMemory();
+        peak.accumulateAndGet(used, Math::max);
+    }
+
+    private static void report(List<Long> latencies, int errors, long tokens, double seconds, long peakHeap) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+
+        System.out.println("=== Load test results ===");
+        System.out.printf("turns:       %d ok, %d failed in %.1f s%n", sorted.size(), errors, seconds);
+        System.out.printf("throughput:  %.2f turns/s, %.1f tokens/s%n", sorted.size() / seconds, tokens / seconds);
+        if (!sorted.isEmpty()) {
+            System.out.printf("latency:     p50 %d ms, p99 %d ms, max %d ms%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), sorted.get(sorted.size() - 1));
+        }
+        System.out.printf("peak heap:   %.1f MB%n", peakHeap / (1024.0 * 1024.0));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(idx, sorted.size() - 1)));
+    }
+}
@@ -1,14 +1,134 @@
 package org.example;
 
+import java.util.Arrays;
+
 public class Main {
 
-    static void main(String[] args) {
+    static void main(String[] args) throws Exception {
         System.out.println("=== Local Java Chat (llama.cpp + Qwen 0.5B) ===");
 
+        // --tune: sweep llama settings on this machine, save the fastest, then exit
+        if (Arrays.asList(args).contains("--tune")) {
+            new AutoTuner(Main::newClient).tune();
+            return;
+        }
+
+        BackendProfile profile = BackendProfile.loadForHost();
+        if (profile != null) {
+            System.out.println("[TUNE] Using tuned profile: " + profile);
+        }
+
+        // -Dmochi.workers=N runs N llama workers side by side, cores split between them
+        // (-Dmochi.pinCpus=true also pins each worker to its cores with taskset on Linux)
+        int workers = Integer.getInteger("mochi.workers", 1);
+        LlamaPool pool = workers <= 1
+                ? LlamaPool.single(newClient(profile))
+                : LlamaPool.partitioned(() -> newClient(profile), workers, Boolean.getBoolean("mochi.pinCpus"));
+
+        // reply cache, optionally persisted: -Dmochi.cacheFile=mochi-cache.txt
+        String cacheFile = System.getProperty("mochi.cacheFile");
+        ResponseCache cache = new ResponseCache(
+                Integer.getInteger("mochi.cacheSize", 256),
+                Long.getLong("mochi.cacheTtlMinutes", 24 * 60L) * 60_000L,
+                cacheFile == null ? null : new java.io.File(cacheFile));
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::save));
+
+        ChatEngine engine = new ChatEngine(pool, cache);
+        // prompt layout: plain (default), chatml (Qwen) or llama3 via -Dmochi.template
+        engine.setTemplate(ChatTemplate.fromName(System.getProperty("mochi.template")));
+        // prefill the next prompt's prefix while the user types (-Dmochi.prefill=false to turn off)
+        engine.setPrefillEnabled(!"false".equals(System.getProperty("mochi.prefill")));
+        // latency target: -Dmochi.targetLatencyMs=8000 adapts reply length / context to stay under it,
+        // -Dmochi.fallbackModel=C:\llama\models\small.gguf is used while the host can't keep up
+        String fallbackModel = System.getProperty("mochi.fallbackModel");
+        engine.setLatencyTarget(Long.getLong("mochi.targetLatencyMs", 0L),
+                fallbackModel == null ? null : LlamaPool.single(newPlainClient(profile, fallbackModel)));
+
+        // vision for /img: needs both -Dmochi.visionModel=C:\llama\models\llava.gguf and
+        // -Dmochi.mmproj=C:\llama\models\mmproj.gguf (a projector only fits the model it was built for,
+        // so the chat model is never guessed); descriptions cached in ~/.mochi/image-cache
+        String visionModel = System.getProperty("mochi.visionModel");
+        String mmproj = System.getProperty("mochi.mmproj");
+        if (visionModel != null && mmproj != null) {
+            engine.setImageDescriber(new ImageDescriber(newPlainClient(profile, visionModel),
+                    new java.io.File(mmproj), ImageDescriber.defaultCacheDir()));
+        } else if (visionModel != null || mmproj != null) {
+            System.out.println("[VISION] Off: set both -Dmochi.visionModel and -Dmochi.mmproj (only " +
+                    (visionModel != null ? "mochi.visionModel" : "mochi.mmproj") + " is set).");
+        } else {
+            System.out.println("[VISION] Off (set -Dmochi.visionModel and -Dmochi.mmproj to enable /img).");
+        }
+
+        // heavy housekeeping (summaries, journal compaction, cache trim) only while the user is idle
+        // for -Dmochi.idleMs (default 3000); -Dmochi.maintenance=false summarizes inline like before
+        if (!"false".equals(System.getProperty("mochi.maintenance"))) {
+            MaintenanceScheduler maintenance = new MaintenanceScheduler(engine::isBusy, Long.getLong("mochi.idleMs", 3000L));
+            maintenance.addJob(cache.maintenanceJob(10 * 60_000L));
+            engine.setMaintenanceScheduler(maintenance);
+            maintenance.start();
+        }
+
+        // headless: local HTTP API instead of the window (--headless, port via -Dmochi.port)
+        if (Arrays.asList(args).contains("--headless")) {
+            new HeadlessServer(engine, Integer.getInteger("mochi.port", 8088)).start();
+            new StartupWarmup(pool, status -> System.out.println("[STARTUP] " + status)).start();
+            return;
+        }
+
         javax.swing.SwingUtilities.invokeLater(() -> {
-            Conversation convo = new Conversation();
-            LlamaClient client = new LlamaClient();
-            new ChatWindow(convo, client).show();
+            Conversation convo = engine.newConversation();
+            ChatWindow window = new ChatWindow(convo, engine);
+
+            // EDT stall monitor: anything blocking the UI longer than -Dmochi.edtStallMs gets reported
+            EdtWatchdog watchdog = new EdtWatchdog(
+                    Long.getLong("mochi.edtStallMs", 200), new java.io.File("logs", "edt-stalls.txt"));
+            watchdog.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(watchdog::stop));
+            window.setEdtWatchdog(watchdog);
+
+            MaintenanceScheduler maintenance = engine.getMaintenanceScheduler();
+            if (maintenance != null) {
+                // the conversation belongs to the EDT: read / update it there, run the model in the background
+                maintenance.addJob(engine.summarizationJob(convo, ChatWindow::runOnEdt));
+                maintenance.addJob(ConversationArchive.compactionJob(convo));
+            }
+
+            window.show();
+
+            // spawn + page in + first eval in the background, so the first reply isn't a cold start
+            new StartupWarmup(pool, window::setStatus).start();
         });
     }
+
+    private static LlamaClient newClient() {
+        return newClient(null);
+    }
+
+    private static LlamaClient newClient(BackendProfile profile) {
+        LlamaClient client = new LlamaClient();
+        client.applyProfile(profile);
+
+        // optional bigger target model + small draft model for speculative decoding:
+        // -Dmochi.model=C:\llama\models\big.gguf -Dmochi.draftModel=C:\llama\models\qwen2.5-0.5b.gguf
+        client.setModel(System.getProperty("mochi.model"));
+        String draftModel = System.getProperty("mochi.draftModel");
+        if (draftModel != null) {
+            client.setDraftModel(draftModel);
+            client.setDraftLimits(
+                    Integer.getInteger("mochi.draftMin", 0),
+                    Integer.getInteger("mochi.draftMax", 16),
+                    Double.parseDouble(System.getProperty("mochi.draftPMin", "0.75")));
+            System.out.println("[SPEC] Draft model set: replies run through llama-speculative " +
+                    "(no prompt cache, so next-turn prefill is off).");
+        }
+        return client;
+    }
+
+    // plain client for one model (fallback / vision), no draft model
+    private static LlamaClient newPlainClient(BackendProfile profile, String model) {
+        LlamaClient client = new LlamaClient();
+        client.applyProfile(profile);
+        client.setModel(model);
+        return client;
+    }
 }
@@ -0,0 +1,182 @@
+package org.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * MaintenanceScheduler
+ * Runs heavy housekeeping only while nobody is waiting for Mochi.
+ * - "Idle" = no user activity for idleMs (-Dmochi.idleMs) and no model work at all (busy is false:
+ *   replies on the main or fallback model, prefill, image descriptions)
+ * - Jobs (summarization, journal compaction, cache trimming, ...) run one at a time, in order
+ * - userTyping() only delays new jobs; userActive() (a message arrived) preempts the running job right away: its llama process is killed and
+ *   isPreempted() turns true, so it stops at the next check and tries again next idle period
+ * - A job that fails (or reports no progress by throwing) backs off on its own: 30 s, 1 min, 2 min, ...
+ *   up to 30 min; other jobs and the user aren't affected, and a success resets it
+ * Runs on one low-priority daemon thread.
+ */
+public class MaintenanceScheduler {
+
+    private static final long TICK_MS = 500;
+    private static final long BACKOFF_MIN_MS = 30_000;
+    private static final long BACKOFF_MAX_MS = 30 * 60_000;
+
+    /** One kind of housekeeping. isDue() is cheap and asked often; run() does the work. */
+    public interface Job {
+        String name();
+
+        boolean isDue();
+
+        void run(Preemption preemption) throws Exception;
+    }
+
+    /** Handed to a running job: check isPreempted() often, attach() any llama process. */
+    public static class Preemption {
+        private volatile boolean preempted;
+        private Process process;
+
+        public boolean isPreempted() {
+            return preempted;
+        }
+
+        /** The process is killed as soon as the user needs the backend. */
+        public synchronized void attach(Process p) {
+            if (preempted) {
+                LlamaClient.cancel(p);
+            } else {
+                process = p;
+            }
+        }
+
+        synchronized void fire() {
+            preempted = true;
+            if (process != null) {
+                LlamaClient.cancel(process);
+                process = null;
+            }
+        }
+    }
+
+    // consecutive failures of one job and when it may run again
+    private record Backoff(int failures, long notBefore) {
+    }
+
+    private final BooleanSupplier busy;
+    private final long idleMs;
+    private final List<Job> jobs = new CopyOnWriteArrayList<>();
+    private final Map<Job, Backoff> backoff = new ConcurrentHashMap<>();
+
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile Preemption current;
+    private volatile boolean running;
+
+    /** busy: true while any model work runs (e.g. ChatEngine::isBusy). */
+    public MaintenanceScheduler(BooleanSupplier busy, long idleMs) {
+        this.busy = busy;
+        this.idleMs = idleMs;
+    }
+
+    public void addJob(Job job) {
+        jobs.add(job);
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        Thread t = new Thread(this::loop, "mochi-maintenance");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        userActive();
+    }
+
+    /** The user is typing: restart the idle clock so no new job starts (a running one continues). */
+    public void userTyping() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * A user message arrived: restart the idle clock and preempt the running job.
+     * Call this before starting a real request so the backend is free for it.
+     */
+    public void userActive() {
+        lastActivity = System.currentTimeMillis();
+        Preemption p = current;
+        if (p != null) {
+            p.fire();
+        }
+    }
+
+    // -----------------------------
+    // Loop
+    // -----------------------------
+
+    private void loop() {
+        while (running) {
+            sleep(TICK_MS);
+            for (Job job : jobs) {
+                if (!isIdle()) break;
+                if (isBackingOff(job) || !job.isDue()) continue;
+                runJob(job);
+            }
+        }
+    }
+
+    private boolean isIdle() {
+        return running
+                && System.currentTimeMillis() - lastActivity >= idleMs
+                && !busy.getAsBoolean();
+    }
+
+    private boolean isBackingOff(Job job) {
+        Backoff b = backoff.get(job);
+        return b != null && System.currentTimeMillis() < b.notBefore;
+    }
+
+    private void runJob(Job job) {
+        Preemption p = new Preemption();
+        current = p;
+        if (!isIdle()) {      // the user came back between the check and now
+            current = null;
+            return;
+        }
+        long t = System.nanoTime();
+        try {
+            job.run(p);
+            long ms = (System.nanoTime() - t) / 1_000_000;
+            if (p.isPreempted()) {
+                System.out.println("[MAINT] " + job.name() + " preempted after " + ms + " ms, will retry when idle.");
+            } else {
+                System.out.println("[MAINT] " + job.name() + " done in " + ms + " ms.");
+                backoff.remove(job);
+            }
+        } catch (Exception ex) {
+            if (p.isPreempted()) {
+                System.out.println("[MAINT] " + job.name() + " preempted, will retry when idle.");
+            } else {
+                int failures = backoff.containsKey(job) ? backoff.get(job).failures + 1 : 1;
+                long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_MIN_MS << Math.min(failures - 1, 16));
+                backoff.put(job, new Backoff(failures, System.currentTimeMillis() + delay));
+                System.out.println("[MAINT] " + job.name() + " failed (" + failures + "x): " + ex +
+                        "; next try in " + delay / 1000 + " s.");
+            }
+        } finally {
+            current = null;
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+/**
+ * MessageRing
+ * Fixed-capacity ring buffer of ChatMessages.
+ * - add() is O(1); when full the oldest message falls out
+ * - dropOldest(n) is O(n) without copying the rest
+ * - get(i) indexes from oldest (0) to newest (size - 1)
+ */
+public class MessageRing {
+
+    private final ChatMessage[] items;
+    private int head = 0;   // index of the oldest message
+    private int size = 0;
+
+    public MessageRing(int capacity) {
+        this.items = new ChatMessage[Math.max(1, capacity)];
+    }
+
+    public void add(ChatMessage msg) {
+        int tail = (head + size) % items.length;
+        items[tail] = msg;
+        if (size == items.length) {
+            head = (head + 1) % items.length; // overwrote the oldest
+        } else {
+            size++;
+        }
+    }
+
+    public ChatMessage get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        return items[(head + i) % items.length];
+    }
+
+    public void dropOldest(int n) {
+        int count = Math.min(n, size);
+        for (int i = 0; i < count; i++) {
+            items[head] = null;
+            head = (head + 1) % items.length;
+        }
+        size -= count;
+    }
+
+    public void clear() {
+        dropOldest(size);
+        head = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * PromptPrefiller
+ * Uses the time the user spends typing to pre-evaluate the next prompt's stable prefix
+ * (system prompt + memory + recent history) into a llama --prompt-cache file.
+ * - start(prefix): background prefill, only when no real request is running or waiting; it goes
+ *   through LlamaPool.runIfIdle(), so it holds a worker slot and counts as in-flight work
+ * - cacheFor(prompt): on Send, kills an unfinished prefill and returns the cache file
+ *   if the finished prefix matches, so llama only evaluates the new user text
+ */
+public class PromptPrefiller {
+
+    private final LlamaPool pool;
+    private final File cacheFile;
+
+    private Thread thread;
+    private Process process;
+    private String pendingPrefix;   // prefix being prefilled right now
+    private String readyPrefix;     // prefix that is fully in cacheFile
+
+    public PromptPrefiller(LlamaPool pool) {
+        this.pool = pool;
+        this.cacheFile = new File(System.getProperty("java.io.tmpdir"),
+                "mochi-prefix-" + ProcessHandle.current().pid() + ".bin");
+        this.cacheFile.deleteOnExit();
+    }
+
+    /** Start prefilling this prefix in the background (replaces any earlier prefill). */
+    public synchronized void start(String prefix) {
+        if (prefix == null || prefix.equals(readyPrefix) || prefix.equals(pendingPrefix)) {
+            return;
+        }
+        if (pool.getInFlight() > 0) {
+            return; // real work first
+        }
+
+        cancel();
+        readyPrefix = null; // the file is about to be overwritten
+        pendingPrefix = prefix;
+
+        thread = Thread.ofVirtual().name("mochi-prefill").start(() -> {
+            long t = System.nanoTime();
+            boolean ran = false;
+            try {
+                ran = pool.runIfIdle(worker -> {
+                    cacheFile.delete();   // a run that writes nothing must not leave an older prefix behind
+                    worker.prefill(prefix, cacheFile, this::attach);
+                    return null;
+                });
+                if (ran) {
+                    finished(prefix, (System.nanoTime() - t) / 1_000_000);
+                }
+            } catch (IOException | InterruptedException ex) {
+                // failed or interrupted: nothing usable in the cache
+            } finally {
+                if (!ran) {
+                    synchronized (this) {
+                        if (prefix.equals(pendingPrefix)) {
+                            pendingPrefix = null;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Called right before a real request. Stops any prefill still running and returns
+     * the cache file if its prefix is the start of this prompt (null otherwise).
+     */
+    public synchronized File cacheFor(String prompt) {
+        if (pendingPrefix != null) {
+            cancel();
+        }
+        if (readyPrefix != null && prompt.startsWith(readyPrefix) && cacheFile.length() > 0) {
+            return cacheFile;
+        }
+        return null;
+    }
+
+    /** True while a prefill is queued or running. */
+    public synchronized boolean isRunning() {
+        return pendingPrefix != null;
+    }
+
+    /** Kill a running prefill, if any. */
+    public synchronized void cancel() {
+        if (process != null) {
+            LlamaClient.cancel(process);
+            process = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        pendingPrefix = null;
+    }
+
+    private synchronized void attach(Process p) {
+        if (pendingPrefix == null) {
+            LlamaClient.cancel(p); // cancelled before the process even started
+        } else {
+            process = p;
+        }
+    }
+
+    private synchronized void finished(String prefix, long millis) {
+        if (!prefix.equals(pendingPrefix)) {
+            return; // cancelled or replaced meanwhile
+        }
+        boolean killed = process != null && process.exitValue() != 0;
+        pendingPrefix = null;
+        process = null;
+        thread = null;
+        if (!killed && cacheFile.length() > 0) {
+            readyPrefix = prefix;
+            System.out.println("[PREFILL] Prefix of " + prefix.length() + " chars cached in " + millis + " ms.");
+        } else if (!killed) {
+            System.out.println("[PREFILL] llama wrote no prompt cache; prefix not cached.");
+        }
+    }
+}
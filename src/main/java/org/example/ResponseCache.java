@@ -0,0 +1,284 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * ResponseCache
+ * Sits in front of LlamaClient so repeated prompts never start llama-cli.
+ * Handles:
+ * - Canned intents (e.g. "what's your name?") checked before anything else
+ * - Exact prompt matches
+ * - Normalized prompt matches (case + whitespace + trailing punctuation)
+ * - Bounded size with LRU + TTL eviction
+ * - Optional persistence to a UTF-8 text file (written outside the lock, replaced atomically)
+ */
+public class ResponseCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long DEFAULT_TTL_MILLIS = 24L * 60 * 60 * 1000; // one day
+
+    private record Entry(String reply, long createdAt) {}
+
+    private record Intent(Predicate<String> matcher, String reply) {}
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final File persistFile;
+
+    private final List<Intent> intents = new CopyOnWriteArrayList<>();   // read on every message, rarely added to
+
+    // access-ordered LinkedHashMaps give us LRU for free
+    private final LinkedHashMap<String, Entry> exact;
+    private final LinkedHashMap<String, Entry> normalized;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private final Object saveLock = new Object();   // one save at a time (maintenance vs. shutdown hook)
+
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, null);
+    }
+
+    public ResponseCache(int maxEntries, long ttlMillis, File persistFile) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.persistFile = persistFile;
+        this.exact = newLru();
+        this.normalized = newLru();
+
+        addDefaultIntents();
+        load();
+    }
+
+    private LinkedHashMap<String, Entry> newLru() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // -----------------------------
+    // Canned intents
+    // -----------------------------
+
+    // straight into the list: the constructor must not call the overridable addIntent()
+    private void addDefaultIntents() {
+        intents.add(new Intent(lower -> lower.contains("what's your name")
+                        || lower.contains("whats your name")
+                        || lower.contains("what is your name")
+                        || lower.contains("who are you"),
+                "My name is Mochi! I'm your offline AI assistant running on your computer."));
+    }
+
+    /** Register a canned reply; the matcher receives the lower-cased user text. */
+    public void addIntent(Predicate<String> matcher, String reply) {
+        intents.add(new Intent(matcher, reply));
+    }
+
+    /** Canned reply for this user message, or null if no rule matches. */
+    public String lookupIntent(String userText) {
+        if (userText == null) return null;
+        String lower = userText.toLowerCase(Locale.ROOT);
+        for (Intent intent : intents) {
+            if (intent.matcher().test(lower)) {
+                synchronized (this) {
+                    hits++;
+                }
+                return intent.reply();
+            }
+        }
+        return null;
+    }
+
+    // -----------------------------
+    // Prompt cache
+    // -----------------------------
+
+    /** Cached reply for this full prompt (exact, then normalized), or null. */
+    public synchronized String get(String prompt) {
+        if (prompt == null) return null;
+        long now = System.currentTimeMillis();
+
+        String reply = lookup(exact, prompt, now);
+        if (reply == null) {
+            reply = lookup(normalized, normalize(prompt), now);
+        }
+
+        if (reply == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return reply;
+    }
+
+    public synchronized void put(String prompt, String reply) {
+        if (prompt == null || reply == null || reply.isBlank()) return;
+        Entry e = new Entry(reply, System.currentTimeMillis());
+        exact.put(prompt, e);
+        normalized.put(normalize(prompt), e);
+    }
+
+    private String lookup(LinkedHashMap<String, Entry> map, String key, long now) {
+        Entry e = map.get(key);
+        if (e == null) return null;
+        if (isExpired(e, now)) {
+            map.remove(key);
+            return null;
+        }
+        return e.reply();
+    }
+
+    private boolean isExpired(Entry e, long now) {
+        return ttlMillis > 0 && now - e.createdAt() > ttlMillis;
+    }
+
+    static String normalize(String prompt) {
+        String n = prompt.toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim();
+        return n.replaceAll("[\\s.!?]+$", "");
+    }
+
+    /** Drop expired entries. */
+    public synchronized void trim() {
+        long now = System.currentTimeMillis();
+        exact.values().removeIf(e -> isExpired(e, now));
+        normalized.values().removeIf(e -> isExpired(e, now));
+    }
+
+    /** Idle-time job: drop expired entries and persist, at most once per intervalMillis. */
+    public MaintenanceScheduler.Job maintenanceJob(long intervalMillis) {
+        return new MaintenanceScheduler.Job() {
+            private long lastRun = System.currentTimeMillis();
+
+            @Override
+            public String name() {
+                return "Reply cache trim";
+            }
+
+            @Override
+            public boolean isDue() {
+                return System.currentTimeMillis() - lastRun >= intervalMillis;
+            }
+
+            @Override
+            public void run(MaintenanceScheduler.Preemption preemption) {
+                lastRun = System.currentTimeMillis();
+                trim();
+                save();
+            }
+        };
+    }
+
+    public synchronized void clear() {
+        exact.clear();
+        normalized.clear();
+    }
+
+    public synchronized int size() {
+        return exact.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // -----------------------------
+    // Persistence (one entry per line: createdAt \t prompt \t reply, escaped)
+    // -----------------------------
+
+    private void load() {
+        if (persistFile == null || !persistFile.isFile()) return;
+
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(persistFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) continue;
+                Entry e = new Entry(unescape(parts[2]), Long.parseLong(parts[0]));
+                if (isExpired(e, now)) continue;
+                String prompt = unescape(parts[1]);
+                exact.put(prompt, e);
+                normalized.put(normalize(prompt), e);
+            }
+            System.out.println("[CACHE] Loaded " + exact.size() + " cached replies.");
+        } catch (IOException | NumberFormatException ex) {
+            System.out.println("[CACHE] Failed to load " + persistFile + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write the cache to persistFile. Only the snapshot is taken under the cache lock, so get()/put()
+     * (called on the EDT) never wait for the disk; the file is written to a temp file and moved over
+     * the old one, so a crash mid-save leaves the previous file intact.
+     */
+    public void save() {
+        if (persistFile == null) return;
+
+        synchronized (saveLock) {
+            List<Map.Entry<String, Entry>> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(exact.size());
+                for (Map.Entry<String, Entry> me : exact.entrySet()) {
+                    snapshot.add(Map.entry(me.getKey(), me.getValue()));
+                }
+            }
+
+            File tmp = new File(persistFile.getPath() + ".tmp");
+            try {
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                    for (Map.Entry<String, Entry> me : snapshot) {
+                        writer.write(me.getValue().createdAt() + "\t" +
+                                escape(me.getKey()) + "\t" +
+                                escape(me.getValue().reply()) + "\n");
+                    }
+                }
+                try {
+                    Files.move(tmp.toPath(), persistFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp.toPath(), persistFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                tmp.delete();
+                System.out.println("[CACHE] Failed to save " + persistFile + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * StartupWarmup
+ * Pays llama's cold-start cost in the background while the window is already up.
+ * Phases:
+ * - check: llama-cli + model file exist
+ * - page-in: read the model so it sits in the OS page cache
+ * - warm-up: tiny one-token prompt on every pool worker (process spawn + mmap + first eval), through
+ *   the pool like any request, so it counts as busy and never runs alongside a reply on the same worker
+ * Each phase is timed and the status callback gets "Loading model..." / "Ready."
+ */
+public class StartupWarmup {
+
+    private final LlamaPool pool;
+    private final Consumer<String> status;
+
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private volatile boolean ready = false;
+
+    public StartupWarmup(LlamaPool pool, Consumer<String> status) {
+        this.pool = pool;
+        this.status = status;
+    }
+
+    public void start() {
+        Thread.ofVirtual().name("mochi-warmup").start(this::run);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized Map<String, Long> getPhaseMillis() {
+        return new LinkedHashMap<>(phaseMillis);
+    }
+
+    private void run() {
+        long startNanos = System.nanoTime();
+        status.accept("Loading model...");
+
+        try {
+            // all workers run the same binary + model
+            LlamaClient primary = pool.getPrimary();
+            long t = System.nanoTime();
+            boolean available = primary.isBackendAvailable();
+            record("check", t);
+            if (!available) {
+                System.out.println("[STARTUP] llama-cli or model not found, skipping warm-up.");
+                status.accept("Ready. (model not found, first reply may fail)");
+                return;
+            }
+
+            t = System.nanoTime();
+            long bytes = primary.pageInModel();
+            record("page-in", t);
+            System.out.println("[STARTUP] Paged in " + (bytes >> 20) + " MB of model data.");
+
+            status.accept("Loading model... (warming up)");
+            t = System.nanoTime();
+            pool.onEveryWorker(worker -> {
+                worker.warmUp();
+                return null;
+            });
+            record("warm-up", t);
+
+            ready = true;
+            long totalMs = (System.nanoTime() - startNanos) / 1_000_000;
+            System.out.println("[STARTUP] Ready in " + totalMs + " ms " + getPhaseMillis());
+            status.accept("Ready. (model loaded in " + totalMs + " ms)");
+
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.out.println("[STARTUP] Warm-up failed.");
+            status.accept("Ready. (warm-up failed)");
+        }
+    }
+
+    private synchronized void record(String phase, long startNanos) {
+        phaseMillis.put(phase, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+/**
+ * StreamingSanitizer
+ * The live (token-by-token) version of the reply clean-up, so streamed text matches what gets stored.
+ * - Replaces "Claude"/"claude" with the bot name, like ChatEngine.sanitizeIdentity()
+ * - Drops end markers ([end of text], <|im_end|>, <|eot_id|>), like LlamaClient's cleanOutput()
+ * - Stops passing text on after maxChars, like ChatEngine.tidyReply()
+ * A marker can be split across chunks, so a chunk's tail that could still become one is held
+ * back until the next chunk (or finish()) decides it.
+ */
+public class StreamingSanitizer {
+
+    private static final String[] DROP = {"[end of text]", "<|im_end|>", "<|eot_id|>"};
+    private static final String[] IDENTITY = {"Claude", "claude"};
+
+    private final String botName;
+    private final int maxChars;
+    private final StringBuilder pending = new StringBuilder();
+    private int emitted;
+
+    public StreamingSanitizer(String botName, int maxChars) {
+        this.botName = botName;
+        this.maxChars = maxChars;
+    }
+
+    /** Feed one raw chunk; returns the part that is safe to show now (maybe ""). */
+    public String accept(String chunk) {
+        pending.append(chunk);
+        String text = clean(pending.toString());
+        int hold = partialMarkerLength(text);
+        pending.setLength(0);
+        pending.append(text, text.length() - hold, text.length());
+        return cap(text.substring(0, text.length() - hold));
+    }
+
+    /** End of the stream: whatever was held back, cleaned. */
+    public String finish() {
+        String text = clean(pending.toString());
+        pending.setLength(0);
+        return cap(text);
+    }
+
+    private String clean(String text) {
+        for (String marker : DROP) {
+            text = text.replace(marker, "");
+        }
+        for (String name : IDENTITY) {
+            text = text.replace(name, botName);
+        }
+        return text;
+    }
+
+    // longest tail of text that is the start of a marker or name (but not a whole one)
+    private static int partialMarkerLength(String text) {
+        int best = 0;
+        for (String[] group : new String[][]{DROP, IDENTITY}) {
+            for (String marker : group) {
+                for (int n = Math.min(marker.length() - 1, text.length()); n > best; n--) {
+                    if (text.regionMatches(text.length() - n, marker, 0, n)) {
+                        best = n;
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private String cap(String text) {
+        if (emitted >= maxChars) {
+            return "";
+        }
+        if (text.length() > maxChars - emitted) {
+            text = text.substring(0, maxChars - emitted);
+        }
+        emitted += text.length();
+        return text;
+    }
+}
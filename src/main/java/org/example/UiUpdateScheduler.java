@@ -0,0 +1,129 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UiUpdateScheduler
+ * Batches chat panel updates into at most one layout + scroll pass per display frame.
+ * - New lines and streamed text appends are queued, not applied immediately
+ * - One revalidate() and one scroll-to-bottom per frame, no matter how many tokens arrived
+ * - Autoscroll only when the user was already at the bottom (don't yank them while reading)
+ * All methods must be called on the EDT.
+ */
+public class UiUpdateScheduler {
+
+    private static final int FRAME_MS = 16;            // ~60 fps
+    private static final int BOTTOM_SLACK_PX = 24;     // "close enough" to the bottom
+
+    private final JPanel chatPanel;
+    private final JScrollPane scrollPane;
+    private final Timer frameTimer;
+
+    private final List<Component> pendingLines = new ArrayList<>();
+    private final Map<JTextArea, StringBuilder> pendingText = new LinkedHashMap<>();
+    private final Map<JTextArea, Runnable> afterText = new LinkedHashMap<>();
+
+    private boolean scrollRequested = false;
+    private boolean forceScroll = false;
+    private boolean stickToBottom = true;   // decided when the first change of a frame arrives
+    private boolean frameOpen = false;
+
+    public UiUpdateScheduler(JPanel chatPanel, JScrollPane scrollPane) {
+        this.chatPanel = chatPanel;
+        this.scrollPane = scrollPane;
+        this.frameTimer = new Timer(FRAME_MS, e -> flush());
+        this.frameTimer.setRepeats(false);
+    }
+
+    // -----------------------------
+    // Queueing
+    // -----------------------------
+
+    /** Add a line (message row) to the chat and scroll to it if the user is at the bottom. */
+    public void addLine(Component line) {
+        openFrame();
+        pendingLines.add(line);
+        scrollRequested = true;
+    }
+
+    /** Append streamed text to a bubble's text area; onResize runs once per frame after the append. */
+    public void appendText(JTextArea area, String text, Runnable onResize) {
+        if (text == null || text.isEmpty()) return;
+        openFrame();
+        pendingText.computeIfAbsent(area, a -> new StringBuilder()).append(text);
+        if (onResize != null) {
+            afterText.put(area, onResize);
+        }
+        scrollRequested = true;
+    }
+
+    /** Scroll to the bottom at the next frame even if the user scrolled up (e.g. they just hit Send). */
+    public void forceScrollToBottom() {
+        openFrame();
+        scrollRequested = true;
+        forceScroll = true;
+    }
+
+    /** Apply everything queued right now (tests / replay, or before reading the panel). */
+    public void flushNow() {
+        frameTimer.stop();
+        flush();
+    }
+
+    private void openFrame() {
+        if (!frameOpen) {
+            frameOpen = true;
+            stickToBottom = isAtBottom();
+            frameTimer.restart();
+        }
+    }
+
+    // -----------------------------
+    // One frame
+    // -----------------------------
+
+    private void flush() {
+        if (!frameOpen) return;
+        frameOpen = false;
+
+        boolean changed = !pendingLines.isEmpty() || !pendingText.isEmpty();
+
+        for (Component line : pendingLines) {
+            chatPanel.add(line);
+        }
+        pendingLines.clear();
+
+        for (Map.Entry<JTextArea, StringBuilder> e : pendingText.entrySet()) {
+            e.getKey().append(e.getValue().toString());
+        }
+        pendingText.clear();
+        for (Runnable r : afterText.values()) {
+            r.run();
+        }
+        afterText.clear();
+
+        if (changed) {
+            chatPanel.revalidate();
+            chatPanel.repaint();
+        }
+
+        if (scrollRequested && (stickToBottom || forceScroll)) {
+            // lay out now so the scroll bar maximum already includes the new content
+            scrollPane.validate();
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            bar.setValue(bar.getMaximum());
+        }
+        scrollRequested = false;
+        forceScroll = false;
+    }
+
+    private boolean isAtBottom() {
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - BOTTOM_SLACK_PX;
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class CompletionStatsTest {
+
+    private static CompletionStats parse(String resource) throws IOException {
+        CompletionStats stats = new CompletionStats();
+        InputStream in = CompletionStatsTest.class.getResourceAsStream(resource);
+        assertNotNull(in, resource);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                stats.parseLine(line);
+            }
+        }
+        return stats;
+    }
+
+    @Test
+    void speculativeRunCountsDecodedTokensNotTargetBatches() throws IOException {
+        CompletionStats stats = parse("/llama-speculative-stderr.txt");
+
+        // not the target's "10 runs" (verification batches) or the draft's "144 runs"
+        assertEquals(130, stats.getGeneratedTokens());
+        assertEquals(130 / 2.318, stats.getGenerationTokensPerSec(), 0.01);
+        // "encoded", not the target's prompt eval (which includes the verification batches)
+        assertEquals(23, stats.getPromptTokens());
+        assertEquals(23 / 0.192, stats.getPromptTokensPerSec(), 0.01);
+
+        assertEquals(144, stats.getDraftedTokens());
+        assertEquals(98, stats.getAcceptedTokens());
+        assertEquals(98.0 / 144, stats.getAcceptanceRate(), 1e-9);
+
+        stats.setWallMillis(2600);
+        assertEquals(130 * 1000.0 / 2600, stats.getEffectiveTokensPerSec(), 1e-9);
+    }
+
+    @Test
+    void plainRunUsesPerfLines() {
+        CompletionStats stats = new CompletionStats();
+        stats.parseLine("generate: n_ctx = 4096, n_batch = 2048, n_predict = 128, n_keep = 1");
+        stats.parseLine("llama_perf_context_print: prompt eval time =     123.45 ms /    20 tokens (    6.17 ms per token,   162.00 tokens per second)");
+        stats.parseLine("llama_perf_context_print:        eval time =     812.00 ms /   127 runs   (    6.39 ms per token,   156.40 tokens per second)");
+
+        assertEquals(127, stats.getGeneratedTokens());
+        assertEquals(156.40, stats.getGenerationTokensPerSec(), 1e-9);
+        assertEquals(20, stats.getPromptTokens());
+        assertEquals(0, stats.getDraftedTokens());
+    }
+}